@@ -0,0 +1,18 @@
+/**
+ * A decoder that takes a whole batch of erasure patterns at a time.
+ * Implementations own their scratch state, and do not allocate memory while decoding.
+ */
+public interface BatchDecoder
+{
+	/**
+	 * Decodes the all-zero code word under every erasure pattern of the batch
+	 * @param batch the erasure patterns; not modified
+	 * @param results one entry is written for each pattern of the batch
+	 */
+	public void decode (ErasureBatch batch, DecodeResults results);
+
+	/**
+	 * @param stats counters to be updated for every decoded pattern; null to disable
+	 */
+	public void setStats (DecoderStats stats);
+}
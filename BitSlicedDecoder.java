@@ -0,0 +1,297 @@
+/**
+ * Bit-sliced peeling decoder for the Binary Erasure Channel.
+ * On the BEC the state of a variable node in one trial is a single bit (erased or not),
+ * so 64 independent trials share one long per node : bit l of word w belongs to lane 64*w+l.
+ * All the lanes are peeled together with word-wide AND/OR/XOR operations.
+ * Layout of the slices : index = col*words + w
+ */
+import java.util.Arrays;
+import java.util.BitSet;
+
+public class BitSlicedDecoder implements BatchDecoder
+{
+	SparseCode code = null;  // shared; never modified
+	int rows, cols;
+	int words;          // number of 64-lane words per node
+	long[] erasures;    // erasure slices
+	long[] data;        // decoded bit slices
+	long[] success;     // lane bit is set if that lane decoded without residual erasures
+	// scratch for one parity equation
+	long[] ones;        // lanes having at least one erasure in the equation
+	long[] twos;        // lanes having at least two erasures
+	long[] par;         // parity of the known bits in each lane
+	boolean[] repaired; // which bits of the equation were repaired in some lane
+	long[] dirty;       // bit map of the parity equations to be (re)examined
+	BitSet residual = null;  // scratch for the stopping set of one lane
+	DecoderStats stats = null;  // optional counters; a round is one sweep
+	long[] sweepRepaired;   // lanes that made progress in the current sweep
+	int sweepCount;         // bits repaired in the current sweep, over all lanes
+	int[] lastRound;        // last sweep in which each lane made progress
+	GF2 gf2 = GF2.KERNEL;
+
+	/**
+	 * @param _code the parity check matrix
+	 * @param _words the decoder works on 64*_words lanes (trials) at a time
+	 */
+	public void init (SparseCode _code, int _words)
+	{
+		if (_words <= 0)
+			throw new IllegalArgumentException ("Invalid number of words per node");
+		this.code = _code;
+		this.rows = code.getRowCount();
+		this.cols = code.getColCount();
+		this.words = _words;
+		this.erasures = new long[cols*words];
+		this.data = new long[cols*words];
+		this.success = new long[words];
+		this.ones = new long[words];
+		this.twos = new long[words];
+		this.par = new long[words];
+		int maxDegree = 0;
+		for (int r=0; r<rows; r++)
+			maxDegree = Math.max (maxDegree, code.rowEnd(r)-code.rowStart(r));
+		this.repaired = new boolean[maxDegree];
+		this.dirty = new long[(rows+63) >>> 6];
+		this.residual = new BitSet(cols);
+		this.sweepRepaired = new long[words];
+		this.lastRound = new int[64*words];
+	}
+
+	/**
+	 * @param _stats counters to be updated by every batch decode(); null to disable
+	 */
+	public void setStats (DecoderStats _stats)
+	{
+		this.stats = _stats;
+	}
+
+	public int getLaneCount()
+	{
+		return 64*words;
+	}
+
+	public int getWordCount()
+	{
+		return words;
+	}
+
+	/**
+	 * Clears erasures and data of all the lanes : all-zero code words without erasures
+	 */
+	public void clear()
+	{
+		Arrays.fill (erasures, 0L);
+		Arrays.fill (data, 0L);
+	}
+
+	/**
+	 * Clears erasures and data of one lane only
+	 */
+	public void clearLane (int lane)
+	{
+		int w = lane >>> 6;
+		long mask = ~(1L << lane);
+		for (int c=0; c<cols; c++)
+		{
+			erasures[c*words+w] &= mask;
+			data[c*words+w] &= mask;
+		}
+	}
+
+	/**
+	 * The erasure slices may be filled in place, one bit per lane
+	 * @return the live erasure slices of this decoder
+	 */
+	public long[] getErasureSlices()
+	{
+		return erasures;
+	}
+
+	public long[] getDataSlices()
+	{
+		return data;
+	}
+
+	/**
+	 * Decodes the batch in groups of getLaneCount() trials, one trial per lane
+	 */
+	public void decode (ErasureBatch batch, DecodeResults results)
+	{
+		int lanes = getLaneCount();
+		for (int first=0; first<batch.size(); first+=lanes)
+		{
+			int count = Math.min (lanes, batch.size()-first);
+			clear();  // all-zero code words
+			for (int lane=0; lane<count; lane++)
+			{
+				BitSet mask = batch.getMask(first+lane);
+				int w = lane >>> 6;
+				long bit = 1L << lane;
+				for (int c=mask.nextSetBit(0); c>=0; c=mask.nextSetBit(c+1))
+					erasures[c*words+w] |= bit;
+			}
+			decode();
+			for (int lane=0; lane<count; lane++)
+			{
+				getErasures (lane, residual);
+				results.set (first+lane, isSuccess(lane), residual);
+				if (stats != null)
+					stats.recordTrial (lastRound[lane], !isSuccess(lane));
+			}
+		}
+	}
+
+	/**
+	 * Decodes all the lanes together, sweeping over the parity equations until no lane makes progress.
+	 * An equation is examined again only when one of its bits has been repaired in some lane;
+	 * since the sweeps go in row order, this costs at most one examination per equation per sweep.
+	 */
+	public void decode()
+	{
+		for (int c=0; c<cols; c++)
+		{
+			if (!isErased(c)) continue;
+			for (int e=code.colStart(c); e<code.colEnd(c); e++)
+				markDirty (code.colIndex(e));
+		}
+		if (stats != null)
+			Arrays.fill (lastRound, 0);
+		int sweep = 0;
+		boolean progress = true;
+		while (progress)
+		{
+			progress = false;
+			sweep++;
+			for (int i=0; i<dirty.length; i++)
+			{
+				while (dirty[i] != 0L)
+				{
+					int row = (i << 6) + Long.numberOfTrailingZeros(dirty[i]);
+					dirty[i] &= dirty[i]-1;  // clear the lowest set bit
+					progress = true;
+					if (!solve(row)) continue;
+					// repaired bits may reduce their other parity equations to a single erasure
+					for (int e=code.rowStart(row); e<code.rowEnd(row); e++)
+					{
+						if (!repaired[e-code.rowStart(row)]) continue;
+						int c = code.rowIndex(e);
+						for (int e2=code.colStart(c); e2<code.colEnd(c); e2++)
+							if (code.colIndex(e2) != row)
+								markDirty (code.colIndex(e2));
+					}
+				}
+			}
+			if (stats != null && sweepCount > 0)
+				endSweep (sweep);
+		}
+		for (int w=0; w<words; w++)
+			success[w] = -1L;
+		for (int c=0; c<cols; c++)
+			gf2.andNotInto (success, 0, erasures, c*words, words);
+	}
+	
+	/**
+	 * Updates the counters at the end of a sweep which repaired some bits
+	 */
+	protected void endSweep (int sweep)
+	{
+		stats.recordRecovered (sweep, sweepCount);
+		for (int w=0; w<words; w++)
+		{
+			for (long bits=sweepRepaired[w]; bits != 0L; bits &= bits-1)
+				lastRound[(w << 6) + Long.numberOfTrailingZeros(bits)] = sweep;
+			sweepRepaired[w] = 0L;
+		}
+		sweepCount = 0;
+	}
+
+	protected void markDirty (int row)
+	{
+		dirty[row >>> 6] |= 1L << row;
+	}
+
+	/**
+	 * Repairs the erased bit of the given parity equation, in every lane where it is the only erasure
+	 * @return true if any bit was repaired
+	 */
+	protected boolean solve (int row)
+	{
+		for (int w=0; w<words; w++)
+		{
+			ones[w] = 0L;
+			twos[w] = 0L;
+			par[w] = 0L;
+		}
+		for (int e=code.rowStart(row); e<code.rowEnd(row); e++)
+		{
+			int base = code.rowIndex(e)*words;
+			for (int w=0; w<words; w++)
+			{
+				long x = erasures[base+w];
+				twos[w] |= ones[w] & x;
+				ones[w] |= x;
+				par[w] ^= data[base+w] & ~x;
+			}
+		}
+		boolean single = false;
+		for (int w=0; w<words; w++)
+		{
+			ones[w] &= ~twos[w];  // lanes with exactly one erasure
+			if (ones[w] != 0L) single = true;
+		}
+		if (!single) return false;
+
+		for (int e=code.rowStart(row); e<code.rowEnd(row); e++)
+		{
+			int base = code.rowIndex(e)*words;
+			boolean any = false;
+			for (int w=0; w<words; w++)
+			{
+				long bits = ones[w] & erasures[base+w];
+				if (bits == 0L) continue;
+				data[base+w] = (data[base+w] & ~bits) | (par[w] & bits); // make the parity even
+				erasures[base+w] &= ~bits;
+				if (stats != null)
+				{
+					sweepRepaired[w] |= bits;
+					sweepCount += Long.bitCount(bits);
+				}
+				any = true;
+			}
+			repaired[e-code.rowStart(row)] = any;
+		}
+		return true;
+	}
+
+	protected boolean isErased (int col)
+	{
+		for (int w=0; w<words; w++)
+			if (erasures[col*words+w] != 0L)
+				return true;
+		return false;
+	}
+
+	/**
+	 * Valid after decode()
+	 * @return true if the given lane was decoded without any residual erasure
+	 */
+	public boolean isSuccess (int lane)
+	{
+		return (success[lane >>> 6] & (1L << lane)) != 0L;
+	}
+
+	/**
+	 * Extracts the residual erasures (the stopping set, after decode) of one lane
+	 * @param lane
+	 * @param out cleared and filled with the erasure positions
+	 */
+	public void getErasures (int lane, BitSet out)
+	{
+		out.clear();
+		int w = lane >>> 6;
+		long bit = 1L << lane;
+		for (int c=0; c<cols; c++)
+			if ((erasures[c*words+w] & bit) != 0L)
+				out.set(c);
+	}
+}
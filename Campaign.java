@@ -0,0 +1,140 @@
+/**
+ * Runs the simulation over a grid of code parameters, in one JVM : every combination of the
+ * block lengths, check lengths and degree distributions given as lists or ranges in the
+ * settings is a cell, simulated by its own Controller with all the other settings.
+ * The cells run on a bounded pool of threads, and share the codes of a CodeLibrary, so a code
+ * used by several cells is generated once, and let go after the last of them. Each cell is a
+ * complete run, with the same results as a separate run of its parameters.
+ * The cumulative results of the cells go to one CSV file for the campaign, in grid order, each
+ * after a CELL row with its index and code dimensions; the trials of each cell go to a file of
+ * its own.
+ * @author Rajaraman
+ */
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+public class Campaign
+{
+	Initializer ini;
+	CodeLibrary library;
+	ArrayList<Initializer> cells = new ArrayList<Initializer>();
+
+	public void init (Initializer _ini)
+	{
+		this.ini = _ini;
+		if (ini.getSpoolDir().length() > 0 || ini.getCheckpointFile().length() > 0 || ini.isResume())
+			throw new IllegalArgumentException ("A campaign cannot be sharded or checkpointed");
+		library = new CodeLibrary();
+		library.init (ini.getCodeStore());
+		cells.clear();
+		for (int c=0; c<ini.getColsGrid().length; c++)
+			for (int r1=0; r1<ini.getRows1Grid().length; r1++)
+				for (int r2=0; r2<ini.getRows2Grid().length; r2++)
+					for (int d1=0; d1<ini.getDegrees1Count(); d1++)
+						for (int d2=0; d2<ini.getDegrees2Count(); d2++)
+							cells.add (ini.getCell (c, r1, r2, d1, d2));
+		for (Initializer cell : cells)  // the uses of each code, so that it is let go after its last cell
+		{
+			CodeFactory factory = new CodeFactory();
+			factory.init (cell);
+			library.reserve (factory, 0);
+			library.reserve (factory, 1);
+		}
+	}
+
+	public int getCellCount()
+	{
+		return cells.size();
+	}
+
+	public void run() throws Exception
+	{
+		int threads = TrialExecutor.getThreadCount (ini.getCampaignThreads());
+		ExecutorService pool = Executors.newFixedThreadPool (threads, new ThreadFactory()
+		{
+			public Thread newThread (Runnable r)
+			{
+				Thread t = new Thread (r, "Campaign");
+				t.setDaemon (true);
+				return t;
+			}
+		});
+		String prefix = Logger.getFilePrefix();
+		ArrayList<Future<String>> results = new ArrayList<Future<String>>();
+		for (int i=0; i<cells.size(); i++)
+		{
+			final Initializer cell = cells.get(i);
+			final String fileName = prefix +"-cell" +i +G.LOG_SUFFIX;
+			results.add (pool.submit (new Callable<String>()
+			{
+				public String call() throws Exception
+				{
+					return runCell (cell, fileName);
+				}
+			}));
+		}
+		G.itraceln ("Campaign: " +cells.size() +" cells on " +threads +" threads");
+		PrintWriter writer = new PrintWriter (prefix +"C" +G.LOG_SUFFIX);
+		try
+		{
+			for (int i=0; i<cells.size(); i++)
+			{
+				Initializer cell = cells.get(i);
+				writer.write ("CELL," +i +"," +cell.getCols() +"," +cell.getRows1() +"," +cell.getRows2() +"\n");
+				try
+				{
+					writer.write (results.get(i).get());
+				}
+				catch (ExecutionException e)
+				{
+					if (e.getCause() instanceof Exception)
+						throw (Exception) e.getCause();
+					throw new RuntimeException (e.getCause());
+				}
+				writer.flush();
+				G.itraceln ("Campaign: cell " +i +" done");
+			}
+			G.itraceln (library.toString());
+			writer.write (library.toString() +"\n");
+		}
+		finally
+		{
+			writer.close();
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Runs one cell to completion, and releases its codes
+	 * @param fileName the log of its trials
+	 * @return its cumulative results
+	 */
+	protected String runCell (Initializer cell, String fileName) throws Exception
+	{
+		StringWriter cumulative = new StringWriter();
+		Logger logger = new Logger();
+		logger.init (fileName, cumulative);
+		try
+		{
+			Controller c = new Controller();
+			c.init (cell, logger, library);
+			c.runSimulation();
+		}
+		finally
+		{
+			logger.close();
+			CodeFactory factory = new CodeFactory();
+			factory.init (cell);
+			library.release (factory, 0);
+			library.release (factory, 1);
+		}
+		return cumulative.toString();
+	}
+}
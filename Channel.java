@@ -4,6 +4,22 @@
  * Note : This follows systematic erasure pattern : that is, once you fix the probability, 
  * the number of bits erased in each iteration remains the same; only their position is 
  * randomly shuffled.
+ * The positions are drawn by a partial Fisher-Yates shuffle of a primitive array : only
+ * erasureCount swaps per pattern, and no allocation. The swaps are undone after each pattern
+ * (again O(erasureCount)), so a pattern depends only on the random numbers it draws.
+ * In Bernoulli mode every bit is erased independently with the erasure probability, so the
+ * number of erasures varies from pattern to pattern. The gaps between erasures are drawn from
+ * the geometric distribution, so a pattern costs O(erasures) random numbers, not O(N).
+ * The Gilbert-Elliott model erases in bursts : a two state Markov chain moves between a
+ * good and a bad state after every bit, and each state has its own erasure rate. A pattern
+ * is streamed one state run at a time, the run lengths and the gaps between erasures within
+ * a run being geometric, so it costs O(runs + erasures). The erasure probability is the
+ * long-run erasure rate : both state rates are scaled by the same factor to meet it (once
+ * the bad state rate reaches 1, the good state rate makes up the rest), while the transition
+ * probabilities, and so the mean burst length, stay as configured.
+ * The random numbers come from a CounterRandom : after setStream(), seek() starts the
+ * stream of one (trial, transmission), so any pattern can be drawn again, alone, in any order.
+ * Each Channel has its own generator : a Channel must not be shared between threads.
  */
 import java.util.*;
 
@@ -12,7 +28,22 @@ public class Channel
 	float erasureProb = 0.0f;
 	int erasureCount = 0;
 	int cols = 0;
-	ArrayList list = null;  // temporary object used to shuffle the bits
+	public static final int SYSTEMATIC = 0;
+	public static final int BERNOULLI = 1;
+	public static final int GILBERT_ELLIOTT = 2;
+	static final double GEOMETRIC_MAX_RATE = 0.05;  // erasure rates above this are drawn bit by bit
+	int model = SYSTEMATIC;
+	double logKeep = 0.0;    // log(1-erasureProb), for the geometric gaps
+	// Gilbert-Elliott parameters : transition probabilities per bit, and the configured rates
+	double goodToBad = 0.0, badToGood = 1.0;
+	double goodErasure = 0.0, badErasure = 0.0;
+	double badFraction = 0.0;   // stationary probability of the bad state
+	double goodRate, badRate;   // the rates scaled to the erasure probability
+	double logKeepGood, logKeepBad, logStayGood, logStayBad;
+	int[] positions = null;  // the identity permutation of 0..N-1, between two patterns
+	int[] swaps = null;      // swaps[i] : the position exchanged with i by the current shuffle
+	CounterRandom random = new CounterRandom();
+	long streamKey = 0L;     // key of the current (seed, code, probability) stream
 	
 	/**
 	 * Call init() every time a new code is generated, with a different N
@@ -21,9 +52,10 @@ public class Channel
 	public void init (int _cols)  
 	{
 		this.cols = _cols;
-		this.list = new ArrayList (cols);
+		this.positions = new int[cols];
+		this.swaps = new int[cols];
 		for (int i=0; i<cols; i++)
-			list.add (new Integer(i));
+			positions[i] = i;
 		this.erasureProb = 0.0f;
 		this.erasureCount = 0;
 	}
@@ -38,6 +70,7 @@ public class Channel
 			throw new RuntimeException ("Invalid erasure probability");
 		this.erasureProb = _erasureProb;
 		this.erasureCount = (int) (erasureProb * cols + 0.5f);
+		updateRates();
 		//G.traceln ("Erasure Prob : "+erasureProb +"; Erasure count : "+erasureCount);
 	}
 
@@ -51,14 +84,73 @@ public class Channel
 			throw new RuntimeException ("Invalid erasure count");
 		this.erasureCount = _erasureCount;
 		this.erasureProb =  ((float)erasureCount)/cols;
+		updateRates();
 		//G.traceln ("Erasure Prob : "+erasureProb +"; Erasure count : "+erasureCount);
 	}
 
+	/**
+	 * Selects the erasure model : SYSTEMATIC (fixed count), BERNOULLI (independent bits)
+	 * or GILBERT_ELLIOTT (bursts)
+	 */
+	public void setModel (int _model)
+	{
+		if (_model < SYSTEMATIC || _model > GILBERT_ELLIOTT)
+			throw new RuntimeException ("Invalid channel model");
+		this.model = _model;
+	}
+	
+	public int getModel()
+	{
+		return model;
+	}
+	
+	/**
+	 * Sets the Gilbert-Elliott chain. The mean burst length is 1/_badToGood bits.
+	 * @param _goodToBad probability of moving to the bad state after a bit in the good state
+	 * @param _badToGood probability of moving to the good state after a bit in the bad state
+	 * @param _goodErasure erasure rate in the good state, before scaling
+	 * @param _badErasure erasure rate in the bad state, before scaling
+	 */
+	public void setBurstParameters (double _goodToBad, double _badToGood, double _goodErasure, double _badErasure)
+	{
+		if (_goodToBad < 0.0 || _goodToBad > 1.0 || _badToGood < 0.0 || _badToGood > 1.0
+			|| _goodErasure < 0.0 || _goodErasure > 1.0 || _badErasure < 0.0 || _badErasure > 1.0)
+			throw new RuntimeException ("Invalid burst channel parameters");
+		this.goodToBad = _goodToBad;
+		this.badToGood = _badToGood;
+		this.goodErasure = _goodErasure;
+		this.badErasure = _badErasure;
+		this.badFraction = (goodToBad+badToGood > 0.0 ? goodToBad/(goodToBad+badToGood) : 0.0);
+		this.logStayGood = Math.log1p (-goodToBad);
+		this.logStayBad = Math.log1p (-badToGood);
+		updateRates();
+	}
+	
+	/*
+	 * Derives the per-bit constants of the erasure probability
+	 */
+	protected void updateRates()
+	{
+		logKeep = Math.log1p (-erasureProb);
+		double mean = badFraction*badErasure + (1.0-badFraction)*goodErasure;
+		double scale = (mean > 0.0 ? erasureProb/mean : 0.0);
+		badRate = Math.min (1.0, badErasure*scale);
+		if (mean <= 0.0 && badFraction > 0.0)
+			badRate = Math.min (1.0, erasureProb/badFraction);  // no configured rates : erase in the bad state only
+		goodRate = (badFraction < 1.0 ? (erasureProb - badFraction*badRate)/(1.0-badFraction) : 0.0);
+		goodRate = Math.max (0.0, Math.min (1.0, goodRate));
+		logKeepGood = Math.log1p (-goodRate);
+		logKeepBad = Math.log1p (-badRate);
+	}
+	
 	public float getErasureProbability ()
 	{
 		return erasureProb;
 	}
 	
+	/**
+	 * @return the number of erasures per pattern; in the random count models, its expected value
+	 */
 	public int getErasureCount()
 	{
 		return erasureCount;
@@ -71,10 +163,187 @@ public class Channel
 	 */
 	public BitSet getErasures()
 	{
-		Collections.shuffle(this.list);  // randomly shuffle integers 1 to N
 		BitSet bs = new BitSet(cols);
-		for (int i=0; i<this.erasureCount; i++)
-			bs.set (((Integer)list.get(i)).intValue());
+		getErasures (bs);
 		return bs;
 	}
+	
+	/*
+	 * Same as getErasures(), but fills the caller's mask instead of allocating a new one
+	 * Returns the number of erasures in the mask
+	 */
+	public int getErasures (BitSet mask)
+	{
+		mask.clear();
+		if (model == BERNOULLI)
+			return erase (mask, 0, cols, erasureProb, logKeep);
+		if (model == GILBERT_ELLIOTT)
+			return getBurstErasures (mask);
+		shuffle (erasureCount);
+		for (int i=0; i<erasureCount; i++)
+			mask.set (positions[i]);
+		unshuffle (erasureCount);
+		return erasureCount;
+	}
+	
+	/*
+	 * Erases every bit of [from,to) independently with probability p : the gap before the
+	 * next erasure is geometric, floor(log(U)/log(1-p)) bits for U uniform in (0,1]
+	 * A gap costs a logarithm, about as much as twenty plain draws : above GEOMETRIC_MAX_RATE
+	 * one draw per bit is cheaper.
+	 * Returns the number of erasures
+	 */
+	protected int erase (BitSet mask, int from, int to, double p, double logKeep)
+	{
+		if (p <= 0.0)
+			return 0;
+		if (p >= 1.0)
+		{
+			mask.set (from, to);
+			return to-from;
+		}
+		int count = 0;
+		if (p > GEOMETRIC_MAX_RATE)
+		{
+			// 64 bits at a time, without branching on the random draws
+			long threshold = (long) (p * (1L << 53));  // compare 53 random bits, as nextDouble() does
+			for (int base=from; base<to; base+=64)
+			{
+				int len = Math.min (64, to-base);
+				long word = 0L;
+				for (int b=0; b<len; b++)
+					word |= (long) ((int) (((random.nextLong() >>> 11) - threshold) >>> 63)) << b;
+				count += Long.bitCount (word);
+				for ( ; word != 0L; word &= word-1)
+					mask.set (base + Long.numberOfTrailingZeros(word));
+			}
+			return count;
+		}
+		long pos = from-1;
+		while (true)
+		{
+			pos += 1 + geometric (logKeep);
+			if (pos >= to)
+				return count;
+			mask.set ((int)pos);
+			count++;
+		}
+	}
+	
+	/*
+	 * Number of failures before the first success, for a success probability q;
+	 * logFail is log(1-q), which must be negative
+	 */
+	private long geometric (double logFail)
+	{
+		return (long) (Math.log1p (-random.nextDouble()) / logFail);
+	}
+	
+	/*
+	 * Streams a Gilbert-Elliott pattern, one run of bits in the same state at a time.
+	 * The first state is drawn from the stationary distribution; a run in a state left with
+	 * probability q after every bit is 1 + geometric bits long.
+	 * Returns the number of erasures
+	 */
+	protected int getBurstErasures (BitSet mask)
+	{
+		boolean bad = (random.nextDouble() < badFraction);
+		int count = 0;
+		int pos = 0;
+		while (pos < cols)
+		{
+			double leave = (bad ? badToGood : goodToBad);
+			long run = (leave > 0.0 ? 1 + geometric (bad ? logStayBad : logStayGood) : cols);
+			int end = (int) Math.min (cols, pos+run);
+			if (bad)
+				count += erase (mask, pos, end, badRate, logKeepBad);
+			else
+				count += erase (mask, pos, end, goodRate, logKeepGood);
+			pos = end;
+			bad = !bad;
+		}
+		return count;
+	}
+	
+	/*
+	 * Brings a uniformly random selection of 'count' positions, in random order, to the
+	 * front of the positions array
+	 */
+	protected void shuffle (int count)
+	{
+		for (int i=0; i<count; i++)
+		{
+			int j = i + random.nextInt (cols-i);
+			swaps[i] = j;
+			int tmp = positions[i];
+			positions[i] = positions[j];
+			positions[j] = tmp;
+		}
+	}
+	
+	/*
+	 * Undoes shuffle(count), restoring the identity permutation
+	 */
+	protected void unshuffle (int count)
+	{
+		for (int i=count-1; i>=0; i--)
+		{
+			int j = swaps[i];
+			int tmp = positions[i];
+			positions[i] = positions[j];
+			positions[j] = tmp;
+		}
+	}
+	
+	/*
+	 * Fills the array with a random order of the N positions : the erasures of any count
+	 * are a prefix of it, so the erasure sets of increasing probabilities are nested
+	 */
+	public void getShuffle (int[] order)
+	{
+		shuffle (cols);
+		System.arraycopy (positions, 0, order, 0, cols);
+		unshuffle (cols);
+	}
+	
+	/*
+	 * Fills every mask of the batch with a fresh erasure pattern, drawn from the current stream
+	 */
+	public void getErasures (ErasureBatch batch)
+	{
+		for (int i=0; i<batch.size(); i++)
+			batch.counts[i] = getErasures (batch.getMask(i));
+	}
+	
+	/*
+	 * Fills every mask of the batch with the erasure pattern of its own trial (see
+	 * ErasureBatch.getTrial()) and the given transmission
+	 */
+	public void getErasures (ErasureBatch batch, int attempt)
+	{
+		for (int i=0; i<batch.size(); i++)
+		{
+			seek (batch.getTrial(i), attempt);
+			batch.counts[i] = getErasures (batch.getMask(i));
+		}
+	}
+	
+	/**
+	 * Selects the random stream of a (run seed, code, probability); the trials are sub-streams
+	 * @param probIndex identifies the erasure probability within the run
+	 */
+	public void setStream (long seed, int code, int probIndex)
+	{
+		this.streamKey = CounterRandom.derive (CounterRandom.derive (seed, code), probIndex);
+		random.seek (streamKey);
+	}
+	
+	/**
+	 * Moves to the random numbers of one transmission of one trial of the current stream
+	 * @param attempt 0 for the first transmission, then the ARQ retransmissions
+	 */
+	public void seek (long trial, int attempt)
+	{
+		random.seek (CounterRandom.derive (CounterRandom.derive (streamKey, trial), attempt));
+	}
 }
@@ -0,0 +1,391 @@
+/**
+ * Where a run of the Controller stands, saved periodically so that a run interrupted by a
+ * crash can be resumed exactly where it stopped : the phase and the sweep, the probability
+ * being run and the trials already done there with their sums, the knee and plateau
+ * detection, the rank cache, the threshold search samples, and the lengths of the log files.
+ * The channel streams are counter based, so the number of trials done is the whole RNG
+ * position. The codes are saved once, beside the checkpoint, as mapped code files.
+ * A checkpoint is written under a temporary name, forced to the disk with the logs, and
+ * renamed into place, so a crash while writing it leaves the previous one.
+ * It keeps the settings that decide the results, and is only resumed with the same ones.
+ * @author Rajaraman
+ */
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Map;
+
+public class Checkpoint
+{
+	public static final int MAGIC = 0x4C44504B;  // "LDPK"
+	public static final String H1_SUFFIX = ".H1.code";
+	public static final String H2_SUFFIX = ".H2.code";
+	// phases of a run
+	public static final int SWEEP = 0;
+	public static final int ZOOM = 1;
+	public static final int SEARCH = 2;
+
+	int phase;
+	int codeId;
+	float errorKneeProb, errorPlateuProb;
+	// the sweep
+	float startProb, endProb, probStep;
+	int numTrials;
+	boolean allTrialsSucceeded, allTrialsFailed;
+	// the probability being run, and its trials so far
+	float errProb;
+	int probIndex;     // its channel stream
+	int trials;
+	int failureCount, mlFailureCount;
+	int stopSetSize, columnRank;  // sums
+	DecoderStats stats = null;
+	ArrayList<String> histograms = new ArrayList<String>();  // the sweep's iteration histogram rows
+	long isTrials, isFailures;    // the importance sampling estimate
+	double isSum, isSumSquares;
+	double isStopSetSum, isColumnRankSum, isMLSum;
+	// the threshold search
+	long searchReused;
+	String settings;  // of the run, checked on resume : see getSettings
+	// the logs, with what had been written to them
+	String logFile, clogFile;
+	long logLength, clogLength;
+
+	/**
+	 * Saves the codes of a run, once, beside its checkpoint file
+	 */
+	public static void writeCodes (String fileName, CodeSnapshot h1, CodeSnapshot h2) throws IOException
+	{
+		MappedSparseCode.write (fileName +H1_SUFFIX, h1.getSparseCode());
+		MappedSparseCode.write (fileName +H2_SUFFIX, h2.getSparseCode());
+	}
+
+	/**
+	 * @param suffix H1_SUFFIX or H2_SUFFIX
+	 * @return the saved code, mapped read-only
+	 */
+	public static CodeSnapshot openCode (String fileName, String suffix) throws IOException
+	{
+		return new CodeSnapshot (MappedSparseCode.open (fileName +suffix));
+	}
+
+	/**
+	 * Removes the checkpoint of a run, with its codes and any half written one
+	 */
+	public static void delete (String fileName)
+	{
+		new File (fileName).delete();
+		new File (fileName +H1_SUFFIX).delete();
+		new File (fileName +H2_SUFFIX).delete();
+		new File (fileName +".tmp").delete();
+	}
+
+	/**
+	 * Writes the checkpoint, with the rank cache and the search samples, if any
+	 */
+	public void write (String fileName, RankCache cache, ThresholdSearch search) throws IOException
+	{
+		File tmp = new File (fileName +".tmp");
+		FileOutputStream file = new FileOutputStream (tmp);
+		DataOutputStream out = new DataOutputStream (new BufferedOutputStream (file));
+		try
+		{
+			out.writeInt (MAGIC);
+			out.writeUTF (settings);
+			out.writeInt (phase);
+			out.writeInt (codeId);
+			out.writeFloat (errorKneeProb);
+			out.writeFloat (errorPlateuProb);
+			out.writeFloat (startProb);
+			out.writeFloat (endProb);
+			out.writeFloat (probStep);
+			out.writeInt (numTrials);
+			out.writeBoolean (allTrialsSucceeded);
+			out.writeBoolean (allTrialsFailed);
+			out.writeFloat (errProb);
+			out.writeInt (probIndex);
+			out.writeInt (trials);
+			out.writeInt (failureCount);
+			out.writeInt (mlFailureCount);
+			out.writeInt (stopSetSize);
+			out.writeInt (columnRank);
+			out.writeLong (isTrials);
+			out.writeLong (isFailures);
+			out.writeDouble (isSum);
+			out.writeDouble (isSumSquares);
+			out.writeDouble (isStopSetSum);
+			out.writeDouble (isColumnRankSum);
+			out.writeDouble (isMLSum);
+			out.writeLong (searchReused);
+			out.writeUTF (logFile);
+			out.writeLong (logLength);
+			out.writeUTF (clogFile);
+			out.writeLong (clogLength);
+			out.writeBoolean (stats != null);
+			if (stats != null)
+				stats.write (out);
+			out.writeInt (histograms.size());
+			for (String row : histograms)
+				out.writeUTF (row);
+			writeCache (out, cache);
+			out.writeBoolean (search != null);
+			if (search != null)
+				writeSearch (out, search);
+			out.flush();
+			file.getFD().sync();
+		}
+		finally
+		{
+			out.close();
+		}
+		Files.move (tmp.toPath(), new File(fileName).toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Reads a checkpoint, and restores the rank cache and the search samples into the given
+	 * objects, freshly initialized
+	 */
+	public void read (String fileName, RankCache cache, ThresholdSearch search) throws IOException
+	{
+		DataInputStream in = new DataInputStream (new BufferedInputStream (new FileInputStream (fileName)));
+		try
+		{
+			if (in.readInt() != MAGIC)
+				throw new IOException ("Not a checkpoint file: " +fileName);
+			settings = in.readUTF();
+			phase = in.readInt();
+			codeId = in.readInt();
+			errorKneeProb = in.readFloat();
+			errorPlateuProb = in.readFloat();
+			startProb = in.readFloat();
+			endProb = in.readFloat();
+			probStep = in.readFloat();
+			numTrials = in.readInt();
+			allTrialsSucceeded = in.readBoolean();
+			allTrialsFailed = in.readBoolean();
+			errProb = in.readFloat();
+			probIndex = in.readInt();
+			trials = in.readInt();
+			failureCount = in.readInt();
+			mlFailureCount = in.readInt();
+			stopSetSize = in.readInt();
+			columnRank = in.readInt();
+			isTrials = in.readLong();
+			isFailures = in.readLong();
+			isSum = in.readDouble();
+			isSumSquares = in.readDouble();
+			isStopSetSum = in.readDouble();
+			isColumnRankSum = in.readDouble();
+			isMLSum = in.readDouble();
+			searchReused = in.readLong();
+			logFile = in.readUTF();
+			logLength = in.readLong();
+			clogFile = in.readUTF();
+			clogLength = in.readLong();
+			stats = null;
+			if (in.readBoolean())
+			{
+				stats = new DecoderStats();
+				stats.read (in);
+			}
+			histograms.clear();
+			int rows = in.readInt();
+			for (int i=0; i<rows; i++)
+				histograms.add (in.readUTF());
+			readCache (in, cache);
+			if (in.readBoolean() && search != null)
+				readSearch (in, search);
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+	/**
+	 * @return the settings that decide the results of a run and the layout of its logs, one
+	 * "name = value" per line; those of the threads, the spool, the code store and the
+	 * checkpoints themselves only change how it is run
+	 */
+	public static String getSettings (Initializer ini)
+	{
+		StringBuilder builder = new StringBuilder();
+		addSetting (builder, "block_length", ini.getCols());
+		addSetting (builder, "check_length1", ini.getRows1());
+		addSetting (builder, "check_length2", ini.getRows2());
+		addSetting (builder, "row_weight1", ini.getRowwt1());
+		addSetting (builder, "row_weight2", ini.getRowwt2());
+		addSetting (builder, "column_weight1", ini.getColwt1());
+		addSetting (builder, "column_weight2", ini.getColwt2());
+		addSetting (builder, "allowed_degrees1", Arrays.toString (ini.getAllowedDegrees1()));
+		addSetting (builder, "node_fractions1", Arrays.toString (ini.getNodeFractions1()));
+		addSetting (builder, "allowed_degrees2", Arrays.toString (ini.getAllowedDegrees2()));
+		addSetting (builder, "node_fractions2", Arrays.toString (ini.getNodeFractions2()));
+		addSetting (builder, "generate_random", G.generateRandomH);
+		addSetting (builder, "random_seed", G.RAND_SEED);
+		addSetting (builder, "start_prob", ini.getStartProb());
+		addSetting (builder, "end_prob", ini.getEndProb());
+		addSetting (builder, "prob_step", ini.getProbStep());
+		addSetting (builder, "num_trials", ini.getTrialCount());
+		addSetting (builder, "zoom_prob_step", ini.getZoomProbStep());
+		addSetting (builder, "zoom_num_trials", ini.getZoomTrialCount());
+		addSetting (builder, "bit_sliced", ini.isBitSliced());
+		addSetting (builder, "slice_words", ini.getSliceWords());
+		addSetting (builder, "ml_decoding", ini.isMLDecoding());
+		addSetting (builder, "decoder_stats", ini.isDecoderStats());
+		addSetting (builder, "rank_engine", ini.getRankEngine());
+		addSetting (builder, "rank_curve", ini.isRankCurve());
+		addSetting (builder, "channel_model", ini.getChannelModel());
+		addSetting (builder, "burst_good_to_bad", ini.getBurstGoodToBad());
+		addSetting (builder, "burst_bad_to_good", ini.getBurstBadToGood());
+		addSetting (builder, "burst_good_erasure", ini.getBurstGoodErasure());
+		addSetting (builder, "burst_bad_erasure", ini.getBurstBadErasure());
+		addSetting (builder, "importance_sampling", ini.isImportanceSampling());
+		addSetting (builder, "biased_prob", ini.getBiasedProb());
+		addSetting (builder, "biased_log_ratio", ini.getBiasedLogRatio());
+		addSetting (builder, "adaptive_trials", ini.isAdaptiveTrials());
+		addSetting (builder, "min_trials", ini.getMinTrials());
+		addSetting (builder, "max_trials", ini.getMaxTrials());
+		addSetting (builder, "interval_width", ini.getIntervalWidth());
+		addSetting (builder, "threshold_search", ini.isThresholdSearch());
+		addSetting (builder, "search_resolution", ini.getSearchResolution());
+		addSetting (builder, "channel_seed", ini.getChannelSeed());
+		return builder.toString();
+	}
+
+	private static void addSetting (StringBuilder builder, String name, Object value)
+	{
+		builder.append (name).append (" = ").append (value).append ('\n');
+	}
+
+	/**
+	 * Keeps the settings of the run
+	 */
+	public void setSettings (Initializer ini)
+	{
+		settings = getSettings (ini);
+	}
+
+	/**
+	 * @throws IllegalArgumentException if the run was started with other settings
+	 */
+	public void checkSettings (Initializer ini)
+	{
+		String[] saved = settings.split ("\n");
+		String[] current = getSettings(ini).split ("\n");
+		StringBuilder differ = new StringBuilder();
+		for (int i=0; i<Math.max (saved.length, current.length); i++)
+			if (i >= saved.length || i >= current.length || !saved[i].equals (current[i]))
+				differ.append ("; ").append (i < saved.length ? saved[i] : current[i]);
+		if (differ.length() > 0)
+			throw new IllegalArgumentException ("The checkpoint was taken with other settings" +differ);
+	}
+
+	/**
+	 * Keeps the importance sampling sums of the probability being run
+	 */
+	public void setSampler (ImportanceSampler sampler)
+	{
+		isTrials = sampler.trials;
+		isFailures = sampler.failures;
+		isSum = sampler.sum;
+		isSumSquares = sampler.sumSquares;
+		isStopSetSum = sampler.stopSetSum;
+		isColumnRankSum = sampler.columnRankSum;
+		isMLSum = sampler.mlSum;
+	}
+
+	/**
+	 * Restores the sums into a sampler already set to the probability
+	 */
+	public void restoreSampler (ImportanceSampler sampler)
+	{
+		sampler.trials = isTrials;
+		sampler.failures = isFailures;
+		sampler.sum = isSum;
+		sampler.sumSquares = isSumSquares;
+		sampler.stopSetSum = isStopSetSum;
+		sampler.columnRankSum = isColumnRankSum;
+		sampler.mlSum = isMLSum;
+	}
+
+	/**
+	 * The entries go from the least to the most recently used, so that putting them back
+	 * in this order restores the LRU order too
+	 */
+	protected static void writeCache (DataOutputStream out, RankCache cache) throws IOException
+	{
+		synchronized (cache)
+		{
+			out.writeLong (cache.hits);
+			out.writeLong (cache.misses);
+			out.writeInt (cache.map.size());
+			for (Map.Entry<BitSet,Integer> e : cache.map.entrySet())
+			{
+				long[] words = e.getKey().toLongArray();
+				out.writeInt (words.length);
+				for (long w : words)
+					out.writeLong (w);
+				out.writeInt (e.getValue());
+			}
+		}
+	}
+
+	protected static void readCache (DataInputStream in, RankCache cache) throws IOException
+	{
+		long hits = in.readLong();
+		long misses = in.readLong();
+		int size = in.readInt();
+		for (int i=0; i<size; i++)
+		{
+			long[] words = new long[in.readInt()];
+			for (int k=0; k<words.length; k++)
+				words[k] = in.readLong();
+			cache.putRank (BitSet.valueOf(words), in.readInt());
+		}
+		synchronized (cache)
+		{
+			cache.hits = hits;
+			cache.misses = misses;
+		}
+	}
+
+	protected static void writeSearch (DataOutputStream out, ThresholdSearch search) throws IOException
+	{
+		out.writeInt (search.points.size());
+		for (Map.Entry<Integer,ThresholdSearch.Point> e : search.points.entrySet())
+		{
+			out.writeInt (e.getKey());
+			out.writeLong (e.getValue().trials);
+			out.writeLong (e.getValue().failures);
+		}
+	}
+
+	protected static void readSearch (DataInputStream in, ThresholdSearch search) throws IOException
+	{
+		int size = in.readInt();
+		for (int i=0; i<size; i++)
+		{
+			ThresholdSearch.Point pt = new ThresholdSearch.Point();
+			int index = in.readInt();
+			pt.trials = in.readLong();
+			pt.failures = in.readLong();
+			search.points.put (index, pt);
+		}
+	}
+
+	public String toString()
+	{
+		String[] phases = {"sweep", "zoom", "search"};
+		return ("Checkpoint: " +phases[phase] +"; error prob=" +errProb +"; " +trials +" trials done");
+	}
+}
@@ -1,3 +1,4 @@
+import java.util.Arrays;
 
 public class CodeFactory 
 {
@@ -56,5 +57,17 @@ public class CodeFactory
 		}
 		return g;
 	}
+	
+	/**
+	 * The generators are deterministic for a given random seed, so codes with equal keys
+	 * are identical and can be shared
+	 * @return the parameters of the generator for H1 (0) or H2 (1)
+	 */
+	public String getKey (int hIndex)
+	{
+		if (hIndex == 0)
+			return ("ModifiedPeg " +m1 +"x" +n +" " +Arrays.toString(allowedDegrees1) +" " +Arrays.toString(nodeFractions1));
+		return ("ModifiedPeg " +m2 +"x" +n +" " +Arrays.toString(allowedDegrees2) +" " +Arrays.toString(nodeFractions2));
+	}
 
 }
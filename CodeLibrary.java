@@ -0,0 +1,132 @@
+/**
+ * The codes generated during a campaign, shared by its grid cells : a code is generated once
+ * for each distinct set of parameters (see CodeFactory.getKey), by the first cell that needs
+ * it, while the other cells that need it wait. Several cells can pair the same H1 with
+ * different H2 codes, or the reverse.
+ * A code is complete, with its snapshot taken (or mapped, with a code store), before it is
+ * handed out; the cells only read it.
+ * The uses of each code are reserved up front, for all the cells, and a code is let go, with
+ * its file, once its last cell is done; a code that was not reserved is kept to the end.
+ * @author Rajaraman
+ */
+import java.io.File;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+public class CodeLibrary
+{
+	HashMap<String,FutureTask<Generator>> codes = new HashMap<String,FutureTask<Generator>>();
+	HashMap<String,Integer> users = new HashMap<String,Integer>();  // the cells yet to release each code
+	HashMap<String,File> files = new HashMap<String,File>();        // the mapped file of each code
+	String codeStore;     // directory of the mapped code files; empty to keep the codes on the heap
+	long requests;
+	int generated, released;
+
+	public void init (String _codeStore)
+	{
+		this.codeStore = _codeStore;
+		if (codeStore.length() > 0)
+			new File(codeStore).mkdirs();
+		codes.clear();
+		users.clear();
+		files.clear();
+		requests = 0;
+		generated = 0;
+		released = 0;
+	}
+
+	/**
+	 * Counts one more cell that will use the code for these parameters
+	 * @param hIndex 0 for H1, 1 for H2
+	 */
+	public synchronized void reserve (CodeFactory factory, int hIndex)
+	{
+		String key = factory.getKey (hIndex);
+		Integer count = users.get (key);
+		users.put (key, (count == null ? 1 : count+1));
+	}
+
+	/**
+	 * A cell is done with the code for these parameters; the last one of its reserved cells
+	 * lets it go
+	 */
+	public void release (CodeFactory factory, int hIndex)
+	{
+		File file;
+		synchronized (this)
+		{
+			String key = factory.getKey (hIndex);
+			Integer count = users.get (key);
+			if (count == null)
+				return;
+			if (count > 1)
+			{
+				users.put (key, count-1);
+				return;
+			}
+			users.remove (key);
+			if (codes.remove (key) == null)
+				return;
+			released++;
+			file = files.remove (key);
+		}
+		if (file != null)
+			file.delete();  // still mapped by the snapshot until it is collected, where the system allows it
+	}
+
+	/**
+	 * @param hIndex 0 for H1, 1 for H2
+	 * @return the generated code for these parameters
+	 */
+	public Generator getCode (final CodeFactory factory, final int hIndex) throws Exception
+	{
+		FutureTask<Generator> task;
+		boolean generate = false;
+		synchronized (this)
+		{
+			requests++;
+			task = codes.get (factory.getKey(hIndex));
+			if (task == null)
+			{
+				final File file = (codeStore.length() > 0 ? new File (codeStore, "H" +generated +".code") : null);
+				generated++;
+				task = new FutureTask<Generator> (new Callable<Generator>()
+				{
+					public Generator call() throws Exception
+					{
+						Generator g = factory.getGenerator (hIndex);
+						g.generate();
+						if (file != null)
+							g.mapSnapshot (file.getPath());
+						else
+							g.getSnapshot();
+						return g;
+					}
+				});
+				codes.put (factory.getKey(hIndex), task);
+				if (file != null)
+					files.put (factory.getKey(hIndex), file);
+				generate = true;
+			}
+		}
+		if (generate)
+			task.run();  // outside the lock : the other codes are generated meanwhile
+		try
+		{
+			return task.get();
+		}
+		catch (ExecutionException e)
+		{
+			if (e.getCause() instanceof Exception)
+				throw (Exception) e.getCause();
+			throw new RuntimeException (e.getCause());
+		}
+	}
+
+	public synchronized String toString()
+	{
+		return ("Code library: " +generated +" codes generated; " +(requests-generated) +" reused; " +released +" released");
+	}
+}
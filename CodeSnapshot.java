@@ -0,0 +1,100 @@
+/**
+ * Immutable snapshot of a parity check matrix, taken once per Generator :
+ * the sparse form for the decoders, and the dense rows packed 64 bits to a long for the
+ * rank engines. Nothing here is ever modified; a rank engine restores its own scratch
+ * copy of the rows with a bulk array copy instead of re-exporting the matrix.
+ * The packed rows are built on first use : the decoders and the basis rank engine need
+ * only the sparse form, which may be a MappedSparseCode too large to pack.
+ * @author Rajaraman
+ */
+import java.util.BitSet;
+
+public class CodeSnapshot
+{
+	protected final int rows;
+	protected final int cols;
+	protected final int words;     // longs per packed row
+	protected final SparseCode sparse;
+	private long[] packed = null;  // row r is packed[r*words] .. packed[r*words+words-1]
+
+	public CodeSnapshot (int _rows, int _cols, int[][] rowSet, int[][] colSet)
+	{
+		this (new SparseCode (_rows, _cols, rowSet, colSet));
+	}
+
+	/**
+	 * @param _sparse not copied; must not be modified afterwards
+	 */
+	public CodeSnapshot (SparseCode _sparse)
+	{
+		sparse = _sparse;
+		rows = sparse.getRowCount();
+		cols = sparse.getColCount();
+		words = (cols+63) >>> 6;
+	}
+
+	private synchronized long[] getPacked()
+	{
+		if (packed == null)
+		{
+			if ((long)rows*words > Integer.MAX_VALUE)
+				throw new IllegalStateException ("Code too large to pack: " +rows +"x" +cols);
+			long[] p = new long[rows*words];
+			for (int r=0; r<rows; r++)
+				for (int e=sparse.rowStart(r); e<sparse.rowEnd(r); e++)
+					p[r*words + (sparse.rowIndex(e) >>> 6)] |= 1L << sparse.rowIndex(e);
+			packed = p;
+		}
+		return packed;
+	}
+
+	public int getRowCount()
+	{
+		return rows;
+	}
+
+	public int getColCount()
+	{
+		return cols;
+	}
+
+	public int getWordCount()
+	{
+		return words;
+	}
+
+	public SparseCode getSparseCode()
+	{
+		return sparse;
+	}
+
+	/**
+	 * Copies all the packed rows, in one bulk copy
+	 * @param dst at least rows*getWordCount() longs
+	 */
+	public void copyRows (long[] dst)
+	{
+		System.arraycopy (getPacked(), 0, dst, 0, rows*words);
+	}
+
+	/**
+	 * Copies one packed row
+	 */
+	public void copyRow (int row, long[] dst, int dstPos)
+	{
+		System.arraycopy (getPacked(), row*words, dst, dstPos, words);
+	}
+
+	/**
+	 * @return the rows as new BitSets
+	 */
+	public BitSet[] exportToBitSet()
+	{
+		return sparse.exportToBitSet();
+	}
+
+	public String toString()
+	{
+		return ("CodeSnapshot: " +rows +" rows; " +cols +" cols; " +sparse.getEdgeCount() +" edges");
+	}
+}
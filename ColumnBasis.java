@@ -0,0 +1,129 @@
+/**
+ * Incremental column rank of a parity check matrix.
+ * Columns are inserted one at a time into an XOR basis of the check space (one packed
+ * vector of 'rows' bits per basis element, kept with distinct leading bits), so the rank
+ * of a growing set of columns is updated without starting the elimination again.
+ * When the column sets are nested, as the erasures of one shuffle at increasing
+ * probabilities, a whole sweep costs about one elimination.
+ */
+import java.util.Arrays;
+import java.util.BitSet;
+
+public class ColumnBasis
+{
+	static final int INITIAL_ELEMENTS = 64;  // basis elements allocated by init()
+	SparseCode code = null;  // shared; never modified
+	int rows, cols;
+	int words;           // longs per vector
+	long[] basis;        // basis element i is basis[i*words] .. basis[i*words+words-1]; grown as the rank rises
+	int[] owner;         // owner[b] is the basis element whose leading bit is b, or -1
+	int[] lead;          // lead[i] is the leading bit of basis element i
+	int rank;
+	BitSet added = null; // the columns inserted so far
+	long[] vec;          // scratch : the column being inserted
+	GF2 gf2 = GF2.KERNEL;
+
+	public void init (SparseCode _code)
+	{
+		this.code = _code;
+		this.rows = code.getRowCount();
+		this.cols = code.getColCount();
+		this.words = (rows+63) >>> 6;
+		this.basis = new long[Math.min (rows, INITIAL_ELEMENTS)*words];
+		this.owner = new int[rows];
+		this.lead = new int[rows];
+		Arrays.fill (owner, -1);
+		this.added = new BitSet(cols);
+		this.vec = new long[words];
+		clear();
+	}
+
+	/**
+	 * Empties the basis; costs O(rank), not O(rows)
+	 */
+	public void clear()
+	{
+		for (int i=0; i<rank; i++)
+			owner[lead[i]] = -1;
+		rank = 0;
+		added.clear();
+	}
+
+	/**
+	 * Inserts one column, unless it has been inserted before
+	 * @return true if the column raised the rank
+	 */
+	public boolean addColumn (int col)
+	{
+		if (added.get(col))
+			return false;
+		added.set(col);
+		return insertColumn (col);
+	}
+
+	/**
+	 * Inserts one column, without checking whether it was inserted before
+	 * @return true if the column raised the rank
+	 */
+	public boolean insertColumn (int col)
+	{
+		if (rank == rows)  // full rank : every column is dependent
+			return false;
+		Arrays.fill (vec, 0L);
+		for (int e=code.colStart(col); e<code.colEnd(col); e++)
+			vec[code.colIndex(e) >>> 6] |= 1L << code.colIndex(e);
+		// cancel the leading bit while it belongs to a basis element; the elements only
+		// have bits below their leading bit, so this terminates
+		for (int w=words-1; w>=0; )
+		{
+			if (vec[w] == 0L)
+			{
+				w--;
+				continue;
+			}
+			int b = (w << 6) + 63 - Long.numberOfLeadingZeros(vec[w]);
+			if (owner[b] < 0)
+			{
+				if ((rank+1)*words > basis.length)  // the rank is at most 'rows'
+					basis = Arrays.copyOf (basis, Math.min (2*rank, rows)*words);
+				System.arraycopy (vec, 0, basis, rank*words, words);
+				lead[rank] = b;
+				owner[b] = rank++;
+				return true;
+			}
+			gf2.xorInto (vec, 0, basis, owner[b]*words, w+1);
+		}
+		return false;  // reduced to zero : dependent
+	}
+
+	/**
+	 * Inserts all the columns of the mask that were not inserted before
+	 * @return the rank of all the columns inserted so far
+	 */
+	public int addColumns (BitSet mask)
+	{
+		for (int c=mask.nextSetBit(0); c>=0 && rank<rows; c=mask.nextSetBit(c+1))
+			addColumn (c);
+		if (rank == rows)
+			added.or (mask);
+		return rank;
+	}
+
+	/**
+	 * @return the rank of the columns inserted so far
+	 */
+	public int getRank()
+	{
+		return rank;
+	}
+
+	public boolean isFullRank()
+	{
+		return (rank == rows);
+	}
+
+	public SparseCode getCode()
+	{
+		return code;
+	}
+}
@@ -0,0 +1,50 @@
+/**
+ * Column rank by insertion of the selected columns into an XOR basis of the check space.
+ * A stopping set has a few dozen columns, so a query costs O(|S| x rows/64) instead of
+ * an elimination of the whole matrix.
+ * The rank cannot exceed the number of rows the selected columns touch; the insertion
+ * stops as soon as it reaches that bound (at most the number of rows), since every
+ * remaining column is then dependent. If it is never reached, the loop ends with every
+ * column inserted, and each independent one has been confirmed on insertion.
+ * The packed column vectors are built from the sparse column (O(column weight)) when they
+ * are inserted, rather than stored : cols x rows/64 longs would not fit for large codes.
+ */
+import java.util.BitSet;
+
+public class ColumnRankEngine implements RankEngine
+{
+	ColumnBasis basis = null;
+	SparseCode code = null;
+	int[] touched;   // query number in which each row was last counted
+	int query = 0;
+
+	public void init (CodeSnapshot _code)
+	{
+		this.code = _code.getSparseCode();
+		this.basis = new ColumnBasis();
+		basis.init (code);
+		this.touched = new int[code.getRowCount()];
+		this.query = 0;
+	}
+
+	public int getColumnRank (BitSet columns)
+	{
+		basis.clear();
+		query++;
+		int bound = 0;  // rows touched by the selected columns
+		for (int c=columns.nextSetBit(0); c>=0; c=columns.nextSetBit(c+1))
+		{
+			for (int e=code.colStart(c); e<code.colEnd(c); e++)
+			{
+				if (touched[code.colIndex(e)] != query)
+				{
+					touched[code.colIndex(e)] = query;
+					bound++;
+				}
+			}
+		}
+		for (int c=columns.nextSetBit(0); c>=0 && basis.getRank() < bound; c=columns.nextSetBit(c+1))
+			basis.insertColumn (c);
+		return basis.getRank();
+	}
+}
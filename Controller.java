@@ -7,8 +7,13 @@
  *   Repeats the experimet a number of times for each probability & finds cumulative/ average values.
  *   Detects the threshold of the code H1, zooms in with fine grained probability step, and repeats the trials.
  *   Logs all results in a CSV file that can be exported to XL
+ *   With a spool directory, the trials are sharded to worker processes : java Controller worker <spool_dir>
+ *   With lists or ranges of code parameters, runs a Campaign over their grid
  * @author Rajaraman
  */
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.Calendar;
 
@@ -17,15 +22,40 @@ public class Controller
 	Initializer ini;
 	Logger logger;
 	long snapShotTime;
-	float errorKneeProb; // the prob at which decoding errors start appearing for the first time
-	float errorPlateuProb; // where 90% of decoding attempts fail
+	float errorKneeProb; // the prob at which decoding errors start appearing for the first time; with threshold_search, where 10% fail
+	float errorPlateuProb; // where 90% of decoding attempts fail (the first sweep probability above 90%, or the search crossing)
+	int mlFailureCount;
+	RankCache rankCache = null;  // H2 column ranks of the stopping sets seen so far
+	int codeId = 0;     // the code pair, in the channel random streams
+	int probIndex = 0;  // the erasure probabilities simulated so far with this code pair, each with its own stream
+	ThresholdSearch search = null;  // replaces the zoom pass, if enabled
+	String iniFileName;
+	Spool spool = null;  // shards the trials to worker processes, if enabled
+	int phase;           // of the run : Checkpoint.SWEEP, ZOOM or SEARCH
+	Checkpoint resumed = null;  // the state of an interrupted run, until it is restored
+	long lastCheckpoint;
+	long searchReused;   // samples of the coarse sweep the search started with
+	CodeLibrary library = null;  // the codes shared by the cells of a campaign
+	String runId;        // the identity of a sharded run, see Spool.getRunId
 	
 	public static void main (String[] args) throws Exception
 	{
+		if (args.length >= 2 && args[0].equals("worker"))
+		{
+			runWorker (args[1]);
+			return;
+		}
 		long startTime = Calendar.getInstance().getTimeInMillis();
 		Controller c = new Controller();
 		c.init("settings.txt");
-		c.runSimulation();
+		if (c.ini.isCampaign())
+		{
+			Campaign campaign = new Campaign();
+			campaign.init (c.ini);
+			campaign.run();
+		}
+		else
+			c.runSimulation();
 		// the time in the Calendar object is FROZEN at the time of calling getInstance()
  		long endTime = Calendar.getInstance().getTimeInMillis();		
 		long elapsed = endTime-startTime;
@@ -41,153 +71,794 @@ public class Controller
 	
 	public void init(String iniFileName) throws Exception
 	{
+		this.iniFileName = iniFileName;
 		this.ini = new Initializer();
 		ini.init(iniFileName);
 		logger = new Logger();
-		logger.init();
+		if (!ini.isResume() && !ini.isCampaign())  // a resumed run appends to its own logs
+			logger.init();
+	}
+	
+	/**
+	 * Sets up one cell of a campaign
+	 * @param _library the codes shared with the other cells
+	 */
+	public void init (Initializer _ini, Logger _logger, CodeLibrary _library)
+	{
+		this.ini = _ini;
+		this.logger = _logger;
+		this.library = _library;
 	}
 	
 	public void runSimulation()throws Exception
 	{
-		CodeFactory factory = new CodeFactory();
-		factory.init (ini);
-		timeStamp();
-		Generator g = factory.getGenerator(0);
-		g.generate();
-		G.itraceln(g.toString());
-		logger.logln(g.toString());
-		logger.clogln(g.toString());
-		timeStamp("Generated Code 1");
-		
-		Generator g2 = factory.getGenerator(1);
-		g2.generate();
-		G.itraceln(g2.toString());
-		logger.logln(g2.toString());
-		logger.clogln(g2.toString());
-		timeStamp("Generated Code 2");
+		CodeSnapshot h1, h2;
+		rankCache = new RankCache();
+		rankCache.init (G.RANK_CACHE_SIZE);
+		probIndex = 0;
+		search = null;
+		if (ini.isThresholdSearch())
+		{
+			search = new ThresholdSearch();
+			search.init (ini.getStartProb(), ini.getEndProb(), ini.getSearchResolution(), ini.getMinTrials(), ini.getMaxTrials());
+		}
+		resumed = null;
+		String checkpointFile = ini.getCheckpointFile();
+		if (ini.isResume())
+		{
+			// the codes, the logs and the state of the interrupted run : nothing is generated or run again
+			resumed = new Checkpoint();
+			resumed.read (checkpointFile, rankCache, search);
+			resumed.checkSettings (ini);
+			h1 = Checkpoint.openCode (checkpointFile, Checkpoint.H1_SUFFIX);
+			h2 = Checkpoint.openCode (checkpointFile, Checkpoint.H2_SUFFIX);
+			logger.reopen (resumed.logFile, resumed.logLength, resumed.clogFile, resumed.clogLength);
+			codeId = resumed.codeId;
+			errorKneeProb = resumed.errorKneeProb;
+			errorPlateuProb = resumed.errorPlateuProb;
+			G.itraceln (resumed.toString());
+		}
+		else
+		{
+			if (checkpointFile.length() > 0)  // that of an older run would be resumed with these codes
+				Checkpoint.delete (checkpointFile);
+			CodeFactory factory = new CodeFactory();
+			factory.init (ini);
+			timeStamp();
+			Generator g;
+			if (library != null)
+				g = library.getCode (factory, 0);
+			else
+			{
+				g = factory.getGenerator(0);
+				g.generate();
+			}
+			G.itraceln(g.toString());
+			logger.logln(g.toString());
+			logger.clogln(g.toString());
+			timeStamp("Generated Code 1");
+			
+			Generator g2;
+			if (library != null)
+				g2 = library.getCode (factory, 1);
+			else
+			{
+				g2 = factory.getGenerator(1);
+				g2.generate();
+			}
+			G.itraceln(g2.toString());
+			logger.logln(g2.toString());
+			logger.clogln(g2.toString());
+			timeStamp("Generated Code 2");
+			if (ini.getCodeStore().length() > 0 && library == null)  // the library maps its own codes
+			{
+				File dir = new File (ini.getCodeStore());
+				dir.mkdirs();
+				G.itraceln (g.mapSnapshot(new File(dir, "H1.code").getPath()).toString());
+				G.itraceln (g2.mapSnapshot(new File(dir, "H2.code").getPath()).toString());
+				timeStamp("Mapped Codes");
+			}
+			h1 = g.getSnapshot();
+			h2 = g2.getSnapshot();
+			if (checkpointFile.length() > 0)
+				Checkpoint.writeCodes (checkpointFile, h1, h2);
+			
+			String statsHeader = (ini.isDecoderStats() ? ",AVGITER,MAXITER,STALLS,AVGSTALLITER,TRUNC" : "");
+			if (ini.isAdaptiveTrials())
+				statsHeader = ",TRIALS,FAILLOW,FAILHIGH" +statsHeader;
+			if (ini.isMLDecoding())
+			{
+				logger.logln ("EPROB,ECNT,RSLT,SSIZE,COLRNK,MLRSLT");
+				logger.clogln ("EPROB,DELTA,SSIZE,COLRNK,FAILRATE,MLFAILRATE" +statsHeader);
+			}
+			else
+			{
+				logger.logln ("EPROB,ECNT,RSLT,SSIZE,COLRNK");
+				logger.clogln ("EPROB,DELTA,SSIZE,COLRNK" +statsHeader);
+			}
+		}
+		spool = null;
+		if (ini.getSpoolDir().length() > 0)
+		{
+			if (ini.isThresholdSearch())
+				throw new IllegalArgumentException ("The threshold search cannot be sharded");
+			spool = new Spool();
+			spool.init (ini.getSpoolDir());
+			runId = Spool.getRunId (new File(iniFileName), h1.getSparseCode(), h2.getSparseCode());
+			spool.begin (runId);
+			spool.publishFile (new File(iniFileName), Spool.SETTINGS);
+			spool.publishCode (h1, Spool.H1_CODE);
+			spool.publishCode (h2, Spool.H2_CODE);
+			spool.setRun (runId);
+			timeStamp("Published Codes");
+		}
+		lastCheckpoint = System.currentTimeMillis();
 		
-		logger.logln ("EPROB,ECNT,RSLT,SSIZE,COLRNK");
-		logger.clogln ("EPROB,DELTA,SSIZE,COLRNK");
-		runSimulation (g, g2, ini.getStartProb(),ini.getEndProb(),ini.getProbStep(),ini.getTrialCount());
-		// runSimulation sets the knee and plateu probabilities
-		G.itraceln ("Error knee =" +errorKneeProb);
-		G.itraceln ("Error plalteau =" +errorPlateuProb);
-		logger.clogln ("Error knee =" +errorKneeProb);
-		logger.clogln ("Error plalteau =" +errorPlateuProb);
-		if (errorPlateuProb-errorKneeProb < ini.getProbStep())
+		float zoomStart, zoomEnd, step;
+		if (resumed == null || resumed.phase == Checkpoint.SWEEP)
 		{
-			G.itraceln ("-- Default Error knee is too small --");
-			errorKneeProb -= ini.getProbStep();
-			errorPlateuProb += ini.getProbStep();
+			phase = Checkpoint.SWEEP;
+			runSimulation (h1, h2, ini.getStartProb(),ini.getEndProb(),ini.getProbStep(),ini.getTrialCount());
+			// runSimulation sets the knee and plateu probabilities
+			G.itraceln (rankCache.toString());
+			logger.clogln (rankCache.toString());
+			G.itraceln ("Error knee =" +errorKneeProb);
+			G.itraceln ("Error plalteau =" +errorPlateuProb);
+			logger.clogln ("Error knee =" +errorKneeProb);
+			logger.clogln ("Error plalteau =" +errorPlateuProb);
+			if (search != null)
+			{
+				logger.logln("Search");
+				logger.clogln("Search");
+				searchReused = search.getTotalTrials();
+			}
+			else
+			{
+				if (errorPlateuProb-errorKneeProb < ini.getProbStep())
+				{
+					G.itraceln ("-- Default Error knee is too small --");
+					errorKneeProb -= ini.getProbStep();
+					errorPlateuProb += ini.getProbStep();
+				}
+				logger.logln("Zoom");
+				logger.clogln("Zoom");
+			}
+			zoomStart = errorKneeProb;
+			zoomEnd = errorPlateuProb;
+			//float step = ini.getZoomProbStep();
+			step = (errorPlateuProb-errorKneeProb)/10.0f;
 		}
-		logger.logln("Zoom");
-		logger.clogln("Zoom");
-		//float step = ini.getZoomProbStep();
-		float step = (errorPlateuProb-errorKneeProb)/10.0f;
+		else
+		{
+			// the sweep was done; the zoom range is saved with the run
+			zoomStart = resumed.startProb;
+			zoomEnd = resumed.endProb;
+			step = resumed.probStep;
+			searchReused = resumed.searchReused;
+		}
+		if (search != null)
+		{
+			phase = Checkpoint.SEARCH;
+			searchThresholds (h1, h2);
+			finish();
+			return;
+		}
+		phase = Checkpoint.ZOOM;
 		G.itraceln ("Zoom probability step = "+step);
-		runSimulation (g, g2, errorKneeProb, errorPlateuProb,step,ini.getZoomTrialCount());
+		runSimulation (h1, h2, zoomStart, zoomEnd, step, ini.getZoomTrialCount());
 		// runSimulation sets the knee and plateu probabilities
+		G.itraceln (rankCache.toString());
+		logger.clogln (rankCache.toString());
 		G.itraceln ("Error knee =" +errorKneeProb);
 		G.itraceln ("Error plateau =" +errorPlateuProb);
 		logger.clogln ("Error knee =" +errorKneeProb);
 		logger.clogln ("Error plateau =" +errorPlateuProb);	
+		finish();
+	}
+	
+	/**
+	 * Ends a complete run : releases the workers, and removes the checkpoint
+	 */
+	protected void finish() throws Exception
+	{
+		if (spool != null)
+			spool.setFinished (true);
+		if (ini.getCheckpointFile().length() > 0)
+			Checkpoint.delete (ini.getCheckpointFile());
 	}
 	
 	/**
 	 * Runs one complete cycle of simulation for a range of probabilities
 	 * Note: This function sets the class variables errorKneeProb and errorPlateuProb
+	 * If a run is being resumed, the sweep continues from its checkpoint.
 	 * @throws Exception
 	 */
-	protected void runSimulation (Generator g, Generator g2, float startProb, float endProb, float probStep, int numTrials) throws Exception
+	protected void runSimulation (CodeSnapshot h1, CodeSnapshot h2, float startProb, float endProb, float probStep, int numTrials) throws Exception
 	{
-		Channel chl = new Channel();
-		chl.init(g.getColCount());
-		Matrix mat = new Matrix();
-		Matrix mat2 = new Matrix();
-		TannerGraph tg = new TannerGraph();
-		BitSet data = new BitSet(g.getColCount());  
+		RankEngine mat2 = createRankEngine();
+		mat2.init (h2);
+		TrialExecutor executor = createExecutor (h1.getSparseCode(), h2, rankCache);
+		Channel chl = executor.getWorker(0).getChannel();
+		TrialSource source = executor;
+		if (spool != null)
+		{
+			ShardedExecutor sharded = new ShardedExecutor();
+			sharded.init (spool, runId, executor, ini.getShardTrials(), h1.getColCount(), ini.getShardLease());
+			source = sharded;
+		}
+		DecoderStats stats = (ini.isDecoderStats() ? new DecoderStats() : null);
+		boolean adaptive = ini.isAdaptiveTrials();
+		ImportanceSampler sampler = null;
+		if (ini.isImportanceSampling())
+		{
+			if (chl.getModel() != Channel.BERNOULLI)
+				throw new IllegalArgumentException ("Importance sampling needs the bernoulli channel model");
+			sampler = new ImportanceSampler();
+			sampler.init (h1.getColCount());
+		}
 		
 		timeStamp();
 		boolean allTrialsSucceeded = true; // flags to detect threshold
 		boolean allTrialsFailed = false;  
-		for (float errProb=startProb; errProb < endProb; errProb = addRoundOff(errProb,probStep))
+		float firstProb = startProb;
+		Checkpoint from = resumed;  // the interrupted sweep, if this one is resumed
+		resumed = null;
+		// the iteration histograms, written after the cumulative rows of the sweep
+		ArrayList<String> histograms = new ArrayList<String>();
+		if (from != null)
+		{
+			histograms.addAll (from.histograms);
+			firstProb = from.errProb;
+			allTrialsSucceeded = from.allTrialsSucceeded;
+			allTrialsFailed = from.allTrialsFailed;
+			probIndex = from.probIndex;
+		}
+		for (float errProb=firstProb; errProb < endProb; errProb = addRoundOff(errProb,probStep))
 		{
 			G.itraceln ("\nerror prob= " +errProb);
 			int stopSetSize = 0;
 			int columnRank = 0;
 			int failureCount = 0;
-			int repeatCount = 0;
-			for (int trial=0; trial<numTrials; trial++)
-			{
-				// NOTE : matrix and tannergraph have to be initiated every time, 
-				// because the bitset is destroyed by rank finding
-				mat.init(g.getRowCount(), g.getColCount(), g.exportToBitSet());
-				mat2.init(g2.getRowCount(), g2.getColCount(), g2.exportToBitSet());
-				tg.init (mat);
-				data.clear(); // all-zero code word
-				tg.setData(data);
-				chl.setErasureProbability(errProb);
-				tg.setErasures(chl.getErasures());
-				//tg.dumpMatrix();
-				
-				boolean result = tg.decode();
-				
-				logger.log(chl.getErasureProbability());
-				logger.log(chl.getErasureCount());
-				if (result) 
-				{
-					repeatCount = 0;
-					G.traceln ("Decoded successfully");
-					logger.log ("success");
-				}
-				else
+			mlFailureCount = 0;
+			source.setStream (ini.getChannelSeed(), codeId, probIndex++);
+			if (sampler != null && errProb > 0.0f)
+			{
+				// draw the trials at the biased probability; the failures are reweighted to errProb
+				sampler.setProbabilities (errProb, ImportanceSampler.getBiasedProbability (errProb,
+					ini.getBiasedProb(), ini.getBiasedLogRatio(), h1.getColCount()));
+				source.setErasureProbability (sampler.getBiasedProbability());
+			}
+			else
+				source.setErasureProbability(errProb);
+			if (stats != null)
+				stats.clear();
+			int trials = 0;
+			if (from != null)
+			{
+				// the trials done before the interruption
+				trials = from.trials;
+				failureCount = from.failureCount;
+				mlFailureCount = from.mlFailureCount;
+				stopSetSize = from.stopSetSize;
+				columnRank = from.columnRank;
+				if (stats != null)
+					stats.add (from.stats);
+				if (sampler != null)
+					from.restoreSampler (sampler);
+				from = null;
+			}
+			source.start (trials, (adaptive ? ini.getMaxTrials() : numTrials) - trials);
+			// the batches come back in trial order, whatever the number of threads or processes
+			for (TrialExecutor.Batch batch=source.nextBatch(); batch!=null; batch=source.nextBatch())
+			{
+				DecodeResults results = batch.getResults();
+				if (stats != null)
+					stats.add (batch.getStats());
+				for (int trial=0; trial<batch.size(); trial++)
 				{
-					if (G.ARQ_MODE && repeatCount < G.MAX_ARQ)  
+					double weight = 0.0;
+					if (sampler != null)
+						weight = sampler.addTrial (results, trial);
+					for (int repeat=0; repeat<results.getRetries(trial); repeat++)
 					{
-						repeatCount++;
-						trial--;  // that is all needed for ARQ !
-						G.itrace ("* ");
+						G.itrace ("* ");  // ARQ retransmission
+						logger.log(chl.getErasureProbability());
+						logger.log(results.getErasureCount(trial, repeat));
+						logger.logln();
 					}
+					logger.log(chl.getErasureProbability());
+					logger.log(results.getErasureCount(trial, results.getRetries(trial)));
+					if (results.isSuccess(trial)) 
+						logSuccess();
 					else
 					{
-						repeatCount=0;  // maximum ARQ attempts exceeded
 						failureCount++;
-						G.traceln ("Decoding failed");
-						logger.log ("failure");
-						BitSet colmask = tg.getErasures();
-						int ssSize = colmask.cardinality();
-						stopSetSize += ssSize;
-						G.traceln ("Stopping set (cardinality=" +ssSize +")");
-						//G.traceln (colmask.toString());
-						logger.log (ssSize);
-						mat2.selectColumns(colmask); // the original H is DESTROYED
-						int rank = mat2.getRank();  // the original H is DESTROYED
+						BitSet colmask = results.getStoppingSet(trial);
+						int rank = logFailure (mat2, colmask, batch.getRank(trial), batch.isMLSuccess(trial));
+						stopSetSize += colmask.cardinality();
 						columnRank += rank;
-						G.traceln ("Rank of stopping set colums=" +rank);
-						logger.log(rank);
+						if (sampler != null)
+							sampler.addFailure (weight, colmask.cardinality(), rank, ini.isMLDecoding() && !batch.isMLSuccess(trial));
 					}
+					logger.logln();
+					//G.activity();
+				} // for- trial 
+				trials += batch.size();
+				// adaptive : stop once the interval on the failure rate is narrow enough
+				if (adaptive && trials >= ini.getMinTrials() && (trials >= ini.getMaxTrials()
+					|| getIntervalWidth (failureCount, trials, (errProb > 0.0f ? sampler : null)) <= ini.getIntervalWidth()))
+				{
+					source.stop();
+					break;
 				}
-				logger.logln();
-				//G.activity();
-			} // for- trial 
-			stopSetSize = (int)((float)stopSetSize/numTrials +0.5); // average stopping set size over the trials
-			columnRank = (int)((float)columnRank/numTrials +0.5);  // average col rank 
+				if (isCheckpointDue())
+				{
+					Checkpoint cp = newCheckpoint();
+					cp.startProb = startProb;
+					cp.endProb = endProb;
+					cp.probStep = probStep;
+					cp.numTrials = numTrials;
+					cp.allTrialsSucceeded = allTrialsSucceeded;
+					cp.allTrialsFailed = allTrialsFailed;
+					cp.errProb = errProb;
+					cp.probIndex = probIndex-1;
+					cp.trials = trials;
+					cp.failureCount = failureCount;
+					cp.mlFailureCount = mlFailureCount;
+					cp.stopSetSize = stopSetSize;
+					cp.columnRank = columnRank;
+					cp.stats = stats;
+					cp.histograms = histograms;
+					if (sampler != null)
+						cp.setSampler (sampler);
+					saveCheckpoint (cp);
+				}
+			}
+			stopSetSize = (int)((float)stopSetSize/trials +0.5); // average stopping set size over the trials
+			columnRank = (int)((float)columnRank/trials +0.5);  // average col rank 
+			float failRate = (float)failureCount/trials;
+			float mlFailRate = (float)mlFailureCount/trials;
+			boolean weighted = (sampler != null && errProb > 0.0f);
+			if (weighted)
+			{
+				// the trials were drawn at the biased probability : the row gives their estimates at errProb
+				stopSetSize = (int)(sampler.getAverageStopSetSize() +0.5);
+				columnRank = (int)(sampler.getAverageColumnRank() +0.5);
+				failRate = (float)sampler.getFailureRate();
+				mlFailRate = (float)sampler.getMLFailureRate();
+			}
+			boolean more = (adaptive || stats != null);  // more columns follow
 			logger.clog(errProb);
 			logger.clog(errProb-startProb);
 			logger.clog(stopSetSize);
-			logger.clogln (columnRank);
-			if (allTrialsSucceeded && failureCount > 0)  // we got the first taste of failure now
+			if (ini.isMLDecoding())
+			{
+				logger.clog (columnRank);
+				logger.clog (failRate);
+				if (more)
+					logger.clog (mlFailRate);
+				else
+					logger.clogln (mlFailRate);
+			}
+			else if (more)
+				logger.clog (columnRank);
+			else
+				logger.clogln (columnRank);
+			if (adaptive)
+			{
+				// the interval of the stop test : that of the weighted estimate with importance sampling
+				float low = (float)WilsonInterval.getLowerBound (failureCount, trials);
+				float high = (float)WilsonInterval.getUpperBound (failureCount, trials);
+				if (weighted)
+				{
+					low = (float)sampler.getLowerBound();
+					high = (float)sampler.getUpperBound();
+				}
+				logger.clog (trials);
+				logger.clog (low);
+				if (stats != null)
+					logger.clog (high);
+				else
+					logger.clogln (high);
+			}
+			if (stats != null)
+			{
+				logStats (stats);
+				addHistograms (histograms, errProb, stats);
+			}
+			if (search != null && sampler == null)
+				search.addSamples (errProb, trials, failureCount);
+			if (weighted)
+				logImportance (sampler);
+			if (allTrialsSucceeded && failureCount > 0)  // we got the first taste of failure now; the raw count, even when weighted
 			{
 				this.errorKneeProb = errProb;
 				allTrialsSucceeded = false;
 			}
-			if (!allTrialsFailed && failureCount > 0.9*numTrials)
+			if (!allTrialsFailed && failRate > 0.9f)
 			{
 				this.errorPlateuProb = errProb;
 				allTrialsFailed = true;
 			}
 		} // for- error probability
+		source.close();
 		timeStamp("End of Simulation Runs");
+		if (stats != null)
+		{
+			logger.clogln ("Iterations");
+			for (String row : histograms)
+				logger.clogln (row);
+		}
+		if (ini.isRankCurve())
+			logRankCurve (h2, h1.getColCount(), startProb, endProb, probStep, numTrials);
+	}
+	
+	/**
+	 * @return true if a checkpoint is enabled and the interval since the last one is over
+	 */
+	protected boolean isCheckpointDue()
+	{
+		return (ini.getCheckpointFile().length() > 0
+			&& System.currentTimeMillis()-lastCheckpoint >= ini.getCheckpointInterval()*1000L);
+	}
+	
+	/**
+	 * @return a checkpoint of the run as a whole; the caller adds the state of its sweep
+	 */
+	protected Checkpoint newCheckpoint() throws IOException
+	{
+		Checkpoint cp = new Checkpoint();
+		cp.setSettings (ini);
+		cp.phase = phase;
+		cp.codeId = codeId;
+		cp.errorKneeProb = errorKneeProb;
+		cp.errorPlateuProb = errorPlateuProb;
+		cp.searchReused = searchReused;
+		logger.sync();  // the logs reach the disk before the checkpoint that counts them
+		cp.logFile = logger.getFileName();
+		cp.logLength = logger.getLength();
+		cp.clogFile = logger.getCumulativeFileName();
+		cp.clogLength = logger.getCumulativeLength();
+		return cp;
+	}
+	
+	protected void saveCheckpoint (Checkpoint cp) throws Exception
+	{
+		cp.write (ini.getCheckpointFile(), rankCache, search);
+		lastCheckpoint = System.currentTimeMillis();
+	}
+	
+	/**
+	 * Builds the trial executor of a sweep, with its workers' channels configured
+	 */
+	protected TrialExecutor createExecutor (SparseCode h1, CodeSnapshot h2, RankCache cache)
+	{
+		return createExecutor (h1, h2, cache, true);
+	}
+
+	/**
+	 * @param analyse false when only the outcomes of the trials are wanted : the lanes get
+	 * no rank engine and no ML decoder
+	 */
+	protected TrialExecutor createExecutor (SparseCode h1, CodeSnapshot h2, RankCache cache, boolean analyse)
+	{
+		// decoding does not alter H1, so the decoders are built only once, on the sparse snapshot
+		int threads = TrialExecutor.getThreadCount (ini.getThreadCount());
+		RankEngine[] engines = new RankEngine[threads];
+		for (int i=0; i<threads && analyse; i++)
+		{
+			engines[i] = createRankEngine();
+			engines[i].init (h2);
+		}
+		TrialExecutor executor = new TrialExecutor();
+		executor.init (threads, h1, ini.isBitSliced(), ini.getSliceWords(), engines, analyse && ini.isMLDecoding(), cache);
+		executor.setFailureAnalysis (analyse);
+		executor.enableStats (ini.isDecoderStats());
+		for (int i=0; i<threads; i++)
+		{
+			Channel c = executor.getWorker(i).getChannel();
+			c.setModel (getChannelModel());
+			c.setBurstParameters (ini.getBurstGoodToBad(), ini.getBurstBadToGood(), ini.getBurstGoodErasure(), ini.getBurstBadErasure());
+		}
+		return executor;
+	}
+	
+	/**
+	 * Runs the units of a spool until the coordinator is done, with the settings and
+	 * the codes it published there. The worker has no rank cache : it finds the rank of
+	 * every stopping set, and the coordinator's cache decides which ones it uses.
+	 */
+	public static void runWorker (String spoolDir) throws Exception
+	{
+		Spool spool = new Spool();
+		spool.init (spoolDir);
+		int units = 0;
+		while (!spool.isFinished())
+		{
+			String run = spool.getRun();
+			if (run == null)  // not published yet
+			{
+				Thread.sleep (G.SPOOL_POLL_MILLIS);
+				continue;
+			}
+			Controller c = new Controller();
+			c.ini = new Initializer();
+			c.ini.init (spool.getFile(Spool.SETTINGS).getPath());
+			SparseCode h1 = MappedSparseCode.open (spool.getFile(Spool.H1_CODE).getPath());
+			CodeSnapshot h2 = new CodeSnapshot (MappedSparseCode.open (spool.getFile(Spool.H2_CODE).getPath()));
+			if (!run.equals (Spool.getRunId (spool.getFile(Spool.SETTINGS), h1, h2.getSparseCode())))
+			{
+				Thread.sleep (G.SPOOL_POLL_MILLIS);  // a new run is being published; read it again
+				continue;
+			}
+			RankCache none = new RankCache();
+			none.init (0);
+			TrialExecutor executor = c.createExecutor (h1, h2, none);
+			// only the units of this run; a new run on the spool is loaded afresh
+			while (!spool.isFinished() && run.equals (spool.getRun()))
+			{
+				Spool.Unit unit = spool.claim (run);
+				if (unit == null)
+				{
+					Thread.sleep (G.SPOOL_POLL_MILLIS);
+					continue;
+				}
+				spool.run (unit, executor);
+				units++;
+			}
+			executor.close();
+		}
+		G.itraceln ("Worker ran " +units +" units");
+	}
+	
+	/**
+	 * Replaces the zoom pass : locates the knee, the 50% point and the plateau by bisection,
+	 * reusing the samples of the coarse sweep. Only the outcomes of the trials are needed, so
+	 * the stopping sets are not analysed. Each grid probability has its own channel stream.
+	 * Sets errorKneeProb and errorPlateuProb.
+	 * With checkpoints, the samples are saved before each new one is taken.
+	 */
+	protected void searchThresholds (CodeSnapshot h1, CodeSnapshot h2) throws Exception
+	{
+		final TrialExecutor executor = createExecutor (h1.getSparseCode(), h2, rankCache, false);
+		search.setSampler (new ThresholdSearch.Sampler()
+		{
+			public int sample (float prob, long firstTrial, int count) throws Exception
+			{
+				// the samples so far; a resumed search decides the same points again without sampling them
+				if (isCheckpointDue())
+				{
+					Checkpoint cp = newCheckpoint();
+					cp.startProb = ini.getStartProb();
+					cp.endProb = ini.getEndProb();
+					saveCheckpoint (cp);
+				}
+				executor.setStream (ini.getChannelSeed(), codeId, Float.floatToIntBits(prob));
+				executor.setErasureProbability (prob);
+				executor.start (firstTrial, count);
+				int failures = 0;
+				for (TrialExecutor.Batch batch=executor.nextBatch(); batch!=null; batch=executor.nextBatch())
+					for (int i=0; i<batch.size(); i++)
+						if (!batch.getResults().isSuccess(i))
+							failures++;
+				return failures;
+			}
+		});
+		long before = searchReused;
+		errorKneeProb = search.findCrossing (ThresholdSearch.KNEE_RATE);
+		float midpoint = search.findCrossing (ThresholdSearch.MIDPOINT_RATE);
+		errorPlateuProb = search.findCrossing (ThresholdSearch.PLATEAU_RATE);
+		executor.close();
+		timeStamp("End of Threshold Search");
+		logger.clogln ("EPROB,TRIALS,FAILURES,FAILRATE,FAILLOW,FAILHIGH");
+		for (int index : search.getIndices())
+		{
+			long trials = search.getTrials (index);
+			long failures = search.getFailures (index);
+			logger.clog (search.toProbability(index));
+			logger.clog ((float)trials);
+			logger.clog ((float)failures);
+			logger.clog ((float)failures/trials);
+			logger.clog ((float)WilsonInterval.getLowerBound (failures, trials));
+			logger.clogln ((float)WilsonInterval.getUpperBound (failures, trials));
+		}
+		G.itraceln ("Search trials = " +(search.getTotalTrials()-before) +" (reused " +before +")");
+		logger.clogln ("Search trials = " +(search.getTotalTrials()-before) +" (reused " +before +")");
+		G.itraceln ("Error knee =" +errorKneeProb);
+		G.itraceln ("Error midpoint =" +midpoint);
+		G.itraceln ("Error plateau =" +errorPlateuProb);
+		logger.clogln ("Error knee =" +errorKneeProb);
+		logger.clogln ("Error midpoint =" +midpoint);
+		logger.clogln ("Error plateau =" +errorPlateuProb);
+	}
+	
+	/**
+	 * @param sampler the importance sampling estimate, if enabled : its interval is then used,
+	 * relative to the estimated rate
+	 * @return the width of the 95% confidence interval on the failure rate
+	 */
+	protected double getIntervalWidth (int failureCount, int trials, ImportanceSampler sampler)
+	{
+		if (sampler == null)
+			return WilsonInterval.getWidth (failureCount, trials);
+		if (sampler.getFailureRate() <= 0.0)
+			return Double.MAX_VALUE;
+		return (sampler.getUpperBound()-sampler.getLowerBound()) / sampler.getFailureRate();
+	}
+	
+	/**
+	 * Logs the importance sampling estimate of one erasure probability, on its own row :
+	 * ISRATE, the probability, the biased probability, the failure rate, its standard error
+	 * and its 95% confidence interval
+	 */
+	protected void logImportance (ImportanceSampler sampler)
+	{
+		G.itraceln ("\n" +sampler.toString());
+		logger.clog ("ISRATE");
+		logger.clog (sampler.getProbability());
+		logger.clog (sampler.getBiasedProbability());
+		logger.clog ((float)sampler.getFailureRate());
+		logger.clog ((float)sampler.getStandardError());
+		logger.clog ((float)sampler.getLowerBound());
+		logger.clogln ((float)sampler.getUpperBound());
+	}
+	
+	/**
+	 * @return the Channel model named in the settings
+	 */
+	protected int getChannelModel()
+	{
+		String name = ini.getChannelModel();
+		if (name.equals("systematic"))
+			return Channel.SYSTEMATIC;
+		if (name.equals("bernoulli"))
+			return Channel.BERNOULLI;
+		if (name.equals("gilbert_elliott"))
+			return Channel.GILBERT_ELLIOTT;
+		throw new IllegalArgumentException ("Unknown channel model: " +name);
+	}
+	
+	/**
+	 * Logs the average rank of H2 on the erasures, at every probability of the sweep.
+	 * Each trial takes one shuffle, whose prefixes are the erasures at increasing
+	 * probabilities; the rank is updated by inserting only the new columns.
+	 */
+	protected void logRankCurve (CodeSnapshot h2, int cols, float startProb, float endProb, float probStep, int numTrials)
+	{
+		int points = 0;
+		for (float errProb=startProb; errProb < endProb; errProb = addRoundOff(errProb,probStep))
+			points++;
+		float[] rankSum = new float[points];
+		ColumnBasis basis = new ColumnBasis();
+		basis.init (h2.getSparseCode());
+		Channel chl = new Channel();
+		chl.init (cols);
+		chl.setStream (ini.getChannelSeed(), codeId, probIndex++);
+		int[] order = new int[cols];
+		for (int trial=0; trial<numTrials; trial++)
+		{
+			chl.seek (trial, 0);
+			chl.getShuffle (order);
+			basis.clear();
+			int next = 0;
+			int point = 0;
+			for (float errProb=startProb; errProb < endProb; errProb = addRoundOff(errProb,probStep))
+			{
+				chl.setErasureProbability (errProb);
+				while (next < chl.getErasureCount())
+					basis.addColumn (order[next++]);
+				rankSum[point++] += basis.getRank();
+			}
+		}
+		logger.clogln ("EPROB,H2RANK");
+		int point = 0;
+		for (float errProb=startProb; errProb < endProb; errProb = addRoundOff(errProb,probStep))
+		{
+			logger.clog (errProb);
+			logger.clogln (rankSum[point++]/numTrials);
+		}
+		timeStamp("End of Rank Curve");
+	}
+	
+	/**
+	 * Completes the cumulative row with the decoder statistics of this probability
+	 */
+	protected void logStats (DecoderStats stats)
+	{
+		logger.clog (stats.getAverageRounds());
+		logger.clog (stats.getMaxRounds());
+		logger.clog ((float)stats.getStalls());
+		logger.clog (stats.getAverageStallRounds());
+		logger.clogln ((float)stats.getTruncations());
+	}
+
+	/**
+	 * Adds the two histogram rows of this probability to the section written after the sweep :
+	 * the number of trials by iterations needed, and the average number of bits recovered
+	 * in each iteration
+	 */
+	protected static void addHistograms (ArrayList<String> rows, float errProb, DecoderStats stats)
+	{
+		StringBuilder iterations = new StringBuilder ("ITERHIST," +errProb +",");
+		StringBuilder recovered = new StringBuilder ("RECOVERED," +errProb +",");
+		for (int r=0; r<=stats.getMaxRounds(); r++)
+		{
+			iterations.append ((float)stats.getRoundCount(r)).append (',');
+			recovered.append (stats.getAverageRecovered(r)).append (',');
+		}
+		rows.add (iterations.toString());
+		rows.add (recovered.toString());
+	}
+
+	/**
+	 * @return the engine for the H2 column ranks selected by the rank_engine setting
+	 */
+	protected RankEngine createRankEngine()
+	{
+		String name = ini.getRankEngine();
+		if (name.equals("gauss"))
+		{
+			Matrix m = new Matrix();
+			m.setParallel (ini.isParallelRank());
+			return m;
+		}
+		if (name.equals("m4ri"))
+			return new PackedMatrix();
+		if (name.equals("basis"))
+			return new ColumnRankEngine();
+		throw new IllegalArgumentException ("Unknown rank engine: " +name);
+	}
+
+	protected void logSuccess ()
+	{
+		G.traceln ("Decoded successfully");
+		logger.log ("success");
+		if (ini.isMLDecoding())
+		{
+			logger.log ("");  // no stopping set
+			logger.log ("");  // no column rank
+			logger.log ("success");
+		}
+	}
+	
+	/**
+	 * Logs a failed trial. The rank cache is consulted and filled here, in trial order.
+	 * @param rank the H2 column rank of the stopping set found by the trial's lane, or -1
+	 * if the cache held it then; mat2 computes it if it has since been evicted
+	 * @param mlSuccess the result of the ML decoder, if enabled
+	 * @return the rank
+	 */
+	protected int logFailure (RankEngine mat2, BitSet colmask, int rank, boolean mlSuccess)
+	{
+		G.traceln ("Decoding failed");
+		logger.log ("failure");
+		int ssSize = colmask.cardinality();
+		G.traceln ("Stopping set (cardinality=" +ssSize +")");
+		//G.traceln (colmask.toString());
+		logger.log (ssSize);
+		int cached = rankCache.getRank (colmask);
+		if (cached >= 0)
+			rank = cached;
+		else
+		{
+			if (rank < 0)
+				rank = mat2.getColumnRank (colmask);  // the snapshot of H2 is not altered
+			rankCache.putRank (colmask, rank);
+		}
+		G.traceln ("Rank of stopping set colums=" +rank);
+		logger.log(rank);
+		if (ini.isMLDecoding())
+		{
+			// peeling never loses information, so ML decoding of the stopping set alone is enough
+			if (mlSuccess)
+				logger.log ("success");
+			else
+			{
+				mlFailureCount++;
+				logger.log ("failure");
+			}
+		}
+		return rank;
 	}
 	
 	private static float addRoundOff (float a, float b)
@@ -0,0 +1,78 @@
+/**
+ * Counter-based random numbers : value i of a stream is a pure function of the stream key
+ * and i (the SplitMix64 finalizer of key + i*GOLDEN), so a stream can be started anywhere
+ * without running any other stream before it.
+ * Keys are derived hierarchically from a run seed, e.g. (seed, code, probability, trial, attempt) :
+ * every trial then draws the same numbers whatever the thread, batch or order it runs in,
+ * and one trial can be replayed alone.
+ * An instance is a cursor on one stream at a time; seek() moves it without allocating.
+ * @author Rajaraman
+ */
+public class CounterRandom
+{
+	static final long GOLDEN = 0x9E3779B97F4A7C15L;  // 2^64 / golden ratio, odd
+	long key;
+	long counter;
+
+	/**
+	 * SplitMix64 finalizer : a bijection on 64 bit values with good avalanche
+	 */
+	public static long mix (long z)
+	{
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * @return the key of sub-stream 'id' of the stream with the given key
+	 */
+	public static long derive (long parent, long id)
+	{
+		return mix (mix(parent) + (id+1)*GOLDEN);
+	}
+
+	/**
+	 * Moves to the start of the stream with this key
+	 */
+	public void seek (long _key)
+	{
+		this.key = _key;
+		this.counter = 0;
+	}
+
+	public long getKey()
+	{
+		return key;
+	}
+
+	public long nextLong()
+	{
+		return mix (key + (++counter)*GOLDEN);
+	}
+
+	/**
+	 * @return a uniform double in [0,1), from 53 random bits
+	 */
+	public double nextDouble()
+	{
+		return (nextLong() >>> 11) * 0x1.0p-53;
+	}
+
+	/**
+	 * Unbiased uniform int in [0,bound), by multiply and shift with rejection (Lemire)
+	 */
+	public int nextInt (int bound)
+	{
+		if (bound <= 0)
+			throw new IllegalArgumentException ("bound must be positive");
+		long m = (nextLong() >>> 32) * bound;
+		if ((m & 0xFFFFFFFFL) < bound)
+		{
+			long reject = (0x100000000L - bound) % bound;
+			while ((m & 0xFFFFFFFFL) < reject)
+				m = (nextLong() >>> 32) * bound;
+		}
+		return (int) (m >>> 32);
+	}
+}
@@ -0,0 +1,74 @@
+/**
+ * Outcome of decoding an ErasureBatch : success flag, residual erasures (the stopping set)
+ * and number of ARQ retransmissions of every trial, with the number of erasures of each
+ * transmission.
+ * All storage is allocated once, and overwritten by every batch.
+ */
+import java.util.BitSet;
+
+public class DecodeResults
+{
+	boolean[] success;
+	BitSet[] stoppingSets;
+	int[] retries;
+	int attempts;    // transmissions per trial : the first one, and up to G.MAX_ARQ retransmissions
+	int[] erasures;  // erasures of transmission t of trial i at [i*attempts+t]
+
+	public void init (int capacity, int cols)
+	{
+		this.success = new boolean[capacity];
+		this.retries = new int[capacity];
+		this.attempts = G.MAX_ARQ+1;
+		this.erasures = new int[capacity*attempts];
+		this.stoppingSets = new BitSet[capacity];
+		for (int i=0; i<capacity; i++)
+			stoppingSets[i] = new BitSet(cols);
+	}
+
+	/*
+	 * input argument residual is not modified
+	 */
+	public void set (int index, boolean result, BitSet residual)
+	{
+		success[index] = result;
+		stoppingSets[index].clear();
+		stoppingSets[index].or (residual);
+	}
+
+	/**
+	 * Copies one trial, with all its transmissions, from other results
+	 */
+	public void copy (int index, DecodeResults src, int srcIndex)
+	{
+		set (index, src.success[srcIndex], src.stoppingSets[srcIndex]);
+		retries[index] = src.retries[srcIndex];
+		System.arraycopy (src.erasures, srcIndex*src.attempts, erasures, index*attempts, Math.min (attempts, src.attempts));
+	}
+
+	public boolean isSuccess (int index)
+	{
+		return success[index];
+	}
+
+	/**
+	 * @return the residual erasures of the trial; empty if it was decoded successfully
+	 */
+	public BitSet getStoppingSet (int index)
+	{
+		return stoppingSets[index];
+	}
+
+	public int getRetries (int index)
+	{
+		return retries[index];
+	}
+
+	/**
+	 * @param attempt 0 for the first transmission, up to getRetries() for the last one
+	 * @return the number of bits erased by the channel in that transmission
+	 */
+	public int getErasureCount (int index, int attempt)
+	{
+		return erasures[index*attempts+attempt];
+	}
+}
@@ -0,0 +1,182 @@
+/**
+ * Counters on the decoding process, accumulated over many trials :
+ * number of iterations (rounds) per trial, bits recovered in each round, stalls and
+ * MAX_ITERATIONS truncations.
+ * A round is one generation of the work list for the TannerGraph decoder,
+ * and one sweep over the parity equations for the bit-sliced decoder.
+ * The counters are plain fields updated by the decoder; the arrays grow only when a
+ * trial needs more rounds than ever before.
+ */
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+public class DecoderStats
+{
+	long trials;
+	long totalRounds;
+	int maxRounds;
+	long stalls;       // trials that ended with residual erasures (a stopping set)
+	long stallRounds;  // rounds spent before stalling, summed over the stalled trials
+	long truncations;  // trials that needed more than G.MAX_ITERATIONS rounds
+	long[] roundHistogram = new long[G.MAX_ITERATIONS+1];  // number of trials by rounds needed
+	long[] recovered = new long[G.MAX_ITERATIONS+1];       // bits recovered in each round, over all trials
+
+	public void clear()
+	{
+		trials = 0;
+		totalRounds = 0;
+		maxRounds = 0;
+		stalls = 0;
+		stallRounds = 0;
+		truncations = 0;
+		for (int i=0; i<roundHistogram.length; i++)
+		{
+			roundHistogram[i] = 0;
+			recovered[i] = 0;
+		}
+	}
+
+	/**
+	 * @param round starting from 1
+	 * @param count bits recovered in this round
+	 */
+	public void recordRecovered (int round, int count)
+	{
+		if (round >= recovered.length)
+			grow (round);
+		recovered[round] += count;
+	}
+
+	/**
+	 * @param rounds number of rounds in which the trial made progress
+	 * @param stalled true if erasures were left over
+	 */
+	public void recordTrial (int rounds, boolean stalled)
+	{
+		if (rounds >= roundHistogram.length)
+			grow (rounds);
+		trials++;
+		totalRounds += rounds;
+		roundHistogram[rounds]++;
+		if (rounds > maxRounds)
+			maxRounds = rounds;
+		if (stalled)
+		{
+			stalls++;
+			stallRounds += rounds;
+		}
+		if (rounds > G.MAX_ITERATIONS)
+			truncations++;
+	}
+
+	/**
+	 * Adds the counters of another object to this
+	 */
+	public void add (DecoderStats other)
+	{
+		trials += other.trials;
+		totalRounds += other.totalRounds;
+		maxRounds = Math.max (maxRounds, other.maxRounds);
+		stalls += other.stalls;
+		stallRounds += other.stallRounds;
+		truncations += other.truncations;
+		if (other.roundHistogram.length > roundHistogram.length)
+			grow (other.roundHistogram.length-1);
+		for (int i=0; i<other.roundHistogram.length; i++)
+		{
+			roundHistogram[i] += other.roundHistogram[i];
+			recovered[i] += other.recovered[i];
+		}
+	}
+
+	protected void grow (int maxIndex)
+	{
+		int size = Math.max (maxIndex+1, 2*roundHistogram.length);
+		long[] tmp = new long[size];
+		System.arraycopy (roundHistogram, 0, tmp, 0, roundHistogram.length);
+		roundHistogram = tmp;
+		tmp = new long[size];
+		System.arraycopy (recovered, 0, tmp, 0, recovered.length);
+		recovered = tmp;
+	}
+
+	/**
+	 * Writes the counters, for another process or a later run
+	 */
+	public void write (DataOutput out) throws IOException
+	{
+		out.writeLong (trials);
+		out.writeLong (totalRounds);
+		out.writeInt (maxRounds);
+		out.writeLong (stalls);
+		out.writeLong (stallRounds);
+		out.writeLong (truncations);
+		out.writeInt (roundHistogram.length);
+		for (int r=0; r<roundHistogram.length; r++)
+		{
+			out.writeLong (roundHistogram[r]);
+			out.writeLong (recovered[r]);
+		}
+	}
+
+	/**
+	 * Replaces the counters by those written by write()
+	 */
+	public void read (DataInput in) throws IOException
+	{
+		trials = in.readLong();
+		totalRounds = in.readLong();
+		maxRounds = in.readInt();
+		stalls = in.readLong();
+		stallRounds = in.readLong();
+		truncations = in.readLong();
+		int length = in.readInt();
+		roundHistogram = new long[length];
+		recovered = new long[length];
+		for (int r=0; r<length; r++)
+		{
+			roundHistogram[r] = in.readLong();
+			recovered[r] = in.readLong();
+		}
+	}
+
+	public long getTrials()
+	{ return trials; }
+	public int getMaxRounds()
+	{ return maxRounds; }
+	public long getStalls()
+	{ return stalls; }
+	public long getTruncations()
+	{ return truncations; }
+
+	public float getAverageRounds()
+	{
+		return (trials==0 ? 0.0f : (float)totalRounds/trials);
+	}
+
+	/**
+	 * @return the average number of rounds before the decoder stalled, over the stalled trials
+	 */
+	public float getAverageStallRounds()
+	{
+		return (stalls==0 ? 0.0f : (float)stallRounds/stalls);
+	}
+
+	/**
+	 * @return the number of trials that needed exactly the given number of rounds
+	 */
+	public long getRoundCount (int rounds)
+	{
+		return (rounds < roundHistogram.length ? roundHistogram[rounds] : 0);
+	}
+
+	/**
+	 * @return the average number of bits recovered in the given round, per trial
+	 */
+	public float getAverageRecovered (int round)
+	{
+		if (trials==0 || round >= recovered.length) return 0.0f;
+		return (float)recovered[round]/trials;
+	}
+}
@@ -0,0 +1,62 @@
+/**
+ * A batch of erasure patterns, one per trial, decoded together by a BatchDecoder.
+ * The masks are allocated once and refilled in place by the Channel for every batch,
+ * which also records the number of erasures in each. Each mask belongs to a numbered trial,
+ * whose random stream the Channel draws it from.
+ */
+import java.util.BitSet;
+
+public class ErasureBatch
+{
+	BitSet[] masks;
+	int[] counts;   // number of erasures in each mask
+	long[] trials;  // trial number of each mask
+	int size;   // number of masks in use
+
+	public void init (int capacity, int cols)
+	{
+		this.masks = new BitSet[capacity];
+		for (int i=0; i<capacity; i++)
+			masks[i] = new BitSet(cols);
+		this.counts = new int[capacity];
+		this.trials = new long[capacity];
+		this.size = 0;
+	}
+
+	public int getCapacity()
+	{
+		return masks.length;
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	public void setSize (int _size)
+	{
+		if (_size < 0 || _size > masks.length)
+			throw new RuntimeException ("Invalid batch size");
+		this.size = _size;
+	}
+
+	public BitSet getMask (int index)
+	{
+		return masks[index];
+	}
+
+	public int getErasureCount (int index)
+	{
+		return counts[index];
+	}
+
+	public long getTrial (int index)
+	{
+		return trials[index];
+	}
+
+	public void setTrial (int index, long trial)
+	{
+		trials[index] = trial;
+	}
+}
@@ -10,7 +10,13 @@ public class G
 	public static int RAND_SEED = 13; // even when H deterministically generated, you can change the seed to get different H
 	public static int MAX_DEPTH = 10;  // minimum acceptable girth - needed (for large N) to terminate PEG algorithm
 	public static boolean COL_EXPORT_MODE = true;  // save the H file in Matlab row,col format or col,row format
-	public static int MAX_ITERATIONS = 20;  // decoder iterations before giving up 
+	public static int MAX_ITERATIONS = 20;  // decoder iterations beyond which a trial counts as truncated, in DecoderStats 
+	public static int BATCH_SIZE = 64;      // trials drawn and decoded together by a TrialWorker
+	public static int RANK_CACHE_SIZE = 4096;  // stopping sets whose H2 column rank is memoized; 0 disables the cache
+	public static int PARALLEL_MIN_ROWS = 1024;  // smaller matrices are always triangulated serially
+	public static int SPOOL_POLL_MILLIS = 200;  // wait between two looks at the spool directory, when there is nothing to run
+	public static int PIVOT_BATCH = 64;        // pivots chosen between two parallel elimination sweeps
+	public static boolean USE_VECTOR_API = true;  // use the SIMD GF(2) kernels of VectorGF2, when it has been built
 	public static String LOG_PREFIX = "..\\Logs\\Log-";
 	public static String LOG_SUFFIX = ".csv";	
 	public static int activityNumber = 0;
@@ -0,0 +1,169 @@
+/**
+ * Word-wise GF(2) kernels on packed rows : bit c of a row is bit (c & 63) of word (c >>> 6).
+ * A row is given by an array and the position of its first word, so that rows of a matrix
+ * can share one flat long[]. The scalar loops are fastest when both rows start at the
+ * same position of separate arrays, which the JIT can auto-vectorize.
+ * This class is the plain scalar implementation. If the Java Vector API is available,
+ * KERNEL is the SIMD implementation VectorGF2 instead (see Readme.txt); it is loaded
+ * by name, so this class compiles and runs without the incubator module.
+ */
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+
+public class GF2
+{
+	public static final GF2 KERNEL = load();
+
+	private static GF2 load()
+	{
+		if (G.USE_VECTOR_API)
+		{
+			try
+			{
+				return (GF2) Class.forName("VectorGF2").getDeclaredConstructor().newInstance();
+			}
+			catch (Throwable t)  // class not built, or jdk.incubator.vector not added at run time
+			{
+			}
+		}
+		return new GF2();
+	}
+
+	/**
+	 * dst ^= src, over len words
+	 */
+	public void xorInto (long[] dst, int dstPos, long[] src, int srcPos, int len)
+	{
+		if (dstPos == srcPos)  // rows held in separate arrays : this form is auto-vectorized by the JIT
+		{
+			for (int i=dstPos; i<dstPos+len; i++)
+				dst[i] ^= src[i];
+			return;
+		}
+		for (int i=0; i<len; i++)
+			dst[dstPos+i] ^= src[srcPos+i];
+	}
+
+	/**
+	 * dst &= src, over len words
+	 */
+	public void andInto (long[] dst, int dstPos, long[] src, int srcPos, int len)
+	{
+		if (dstPos == srcPos)
+		{
+			for (int i=dstPos; i<dstPos+len; i++)
+				dst[i] &= src[i];
+			return;
+		}
+		for (int i=0; i<len; i++)
+			dst[dstPos+i] &= src[srcPos+i];
+	}
+
+	/**
+	 * dst &= ~src, over len words
+	 */
+	public void andNotInto (long[] dst, int dstPos, long[] src, int srcPos, int len)
+	{
+		if (dstPos == srcPos)
+		{
+			for (int i=dstPos; i<dstPos+len; i++)
+				dst[i] &= ~src[i];
+			return;
+		}
+		for (int i=0; i<len; i++)
+			dst[dstPos+i] &= ~src[srcPos+i];
+	}
+
+	/**
+	 * @return the number of bits set in (a & b), over len words
+	 */
+	public int andPopcount (long[] a, int aPos, long[] b, int bPos, int len)
+	{
+		int count = 0;
+		for (int i=0; i<len; i++)
+			count += Long.bitCount (a[aPos+i] & b[bPos+i]);
+		return count;
+	}
+
+	/**
+	 * @return the number of bits set, over len words
+	 */
+	public int popcount (long[] a, int aPos, int len)
+	{
+		int count = 0;
+		for (int i=0; i<len; i++)
+			count += Long.bitCount (a[aPos+i]);
+		return count;
+	}
+
+	public String toString()
+	{
+		return ("GF2 kernel: scalar");
+	}
+
+	/**
+	 * Self check : KERNEL against BitSet arithmetic, on random rows of every length up to
+	 * 70 words and at unaligned positions, so the vector loops and their scalar tails are
+	 * both covered
+	 */
+	public static void main (String[] args)
+	{
+		System.out.println (KERNEL);
+		Random rand = new Random (args.length > 0 ? Long.parseLong(args[0]) : 1);
+		int checks = 0;
+		for (int len=0; len<=70; len++)
+			for (int aPos=0; aPos<3; aPos++)
+				for (int bPos=0; bPos<3; bPos++)
+				{
+					long[] a = new long[aPos+len+2];
+					long[] b = new long[bPos+len+2];
+					for (int i=0; i<a.length; i++)
+						a[i] = rand.nextLong() & rand.nextLong();  // 1 bit in 4, not all words full
+					for (int i=0; i<b.length; i++)
+						b[i] = rand.nextLong();
+					BitSet x = BitSet.valueOf (Arrays.copyOfRange (a, aPos, aPos+len));
+					BitSet y = BitSet.valueOf (Arrays.copyOfRange (b, bPos, bPos+len));
+					BitSet and = (BitSet) x.clone();
+					and.and (y);
+					check (KERNEL.popcount (a, aPos, len) == x.cardinality(), "popcount", len, aPos, bPos);
+					check (KERNEL.andPopcount (a, aPos, b, bPos, len) == and.cardinality(), "andPopcount", len, aPos, bPos);
+					BitSet expected = (BitSet) x.clone();
+					expected.xor (y);
+					check (isRow (run (0, a, aPos, b, bPos, len), aPos, len, expected), "xorInto", len, aPos, bPos);
+					check (isRow (run (1, a, aPos, b, bPos, len), aPos, len, and), "andInto", len, aPos, bPos);
+					expected = (BitSet) x.clone();
+					expected.andNot (y);
+					check (isRow (run (2, a, aPos, b, bPos, len), aPos, len, expected), "andNotInto", len, aPos, bPos);
+					checks += 5;
+				}
+		System.out.println (checks +" checks passed");
+	}
+
+	private static long[] run (int op, long[] a, int aPos, long[] b, int bPos, int len)
+	{
+		long[] dst = a.clone();
+		if (op == 0)
+			KERNEL.xorInto (dst, aPos, b, bPos, len);
+		else if (op == 1)
+			KERNEL.andInto (dst, aPos, b, bPos, len);
+		else
+			KERNEL.andNotInto (dst, aPos, b, bPos, len);
+		for (int i=0; i<aPos; i++)  // the words around the row are untouched
+			check (dst[i] == a[i], "words before the row", len, aPos, bPos);
+		for (int i=aPos+len; i<a.length; i++)
+			check (dst[i] == a[i], "words after the row", len, aPos, bPos);
+		return dst;
+	}
+
+	private static boolean isRow (long[] dst, int pos, int len, BitSet expected)
+	{
+		return BitSet.valueOf (Arrays.copyOfRange (dst, pos, pos+len)).equals (expected);
+	}
+
+	private static void check (boolean ok, String kernel, int len, int aPos, int bPos)
+	{
+		if (!ok)
+			throw new IllegalStateException (kernel +" is wrong for " +len +" words at " +aPos +", " +bPos);
+	}
+}
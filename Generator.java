@@ -12,6 +12,7 @@ public abstract class Generator
 	protected int[][] rowSet;
 	protected int[][] colSet;
 	protected int[] cycleArray;
+	protected CodeSnapshot snapshot = null;  // taken on demand, dropped when H changes
 	
 	abstract public void generate() throws Exception;
 	abstract public void init (int param1, int param2, int param3);
@@ -146,6 +147,8 @@ public abstract class Generator
 	 */
 	public BitSet[] exportToBitSet()
 	{
+		if (rowSet == null)  // released by mapSnapshot()
+			return snapshot.exportToBitSet();
 		BitSet[] bs = new BitSet[rows];
 		for (int r=0; r<rows; r++)
 		{
@@ -156,6 +159,62 @@ public abstract class Generator
 		return bs;
 	}
 	
+	/**
+	 * converts the H matrix to the immutable compressed row/column form used by the decoders
+	 * @return
+	 */
+	public SparseCode exportToSparseCode()
+	{
+		if (rowSet == null)  // released by mapSnapshot()
+			return snapshot.getSparseCode();
+		return new SparseCode (rows, cols, rowSet, colSet);
+	}
+	
+	/**
+	 * The snapshot is taken on the first call after the matrix is complete, and shared
+	 * by all the later calls
+	 * @return the immutable snapshot of H
+	 */
+	public CodeSnapshot getSnapshot()
+	{
+		if (snapshot == null)
+			snapshot = new CodeSnapshot (rows, cols, rowSet, colSet);
+		return snapshot;
+	}
+	
+	/**
+	 * Writes H to a code file that can be mapped read-only by any number of decoders,
+	 * in this JVM or another
+	 * @param fileName
+	 * @throws IOException
+	 */
+	public void exportToMappedCode (String fileName) throws IOException
+	{
+		if (rowSet == null)  // released by mapSnapshot()
+		{
+			MappedSparseCode.write (fileName, snapshot.getSparseCode());
+			return;
+		}
+		MappedSparseCode.write (fileName, rows, cols, rowSet, colSet);
+	}
+	
+	/**
+	 * Writes H to a code file and takes the snapshot on its read-only mapping,
+	 * so that the decoders read H from the page cache instead of the heap.
+	 * The row and column lists are released : H is final from then on, and is read
+	 * from the mapping only.
+	 * @param fileName
+	 * @throws IOException
+	 */
+	public CodeSnapshot mapSnapshot (String fileName) throws IOException
+	{
+		exportToMappedCode (fileName);
+		snapshot = new CodeSnapshot (MappedSparseCode.open (fileName));
+		rowSet = null;
+		colSet = null;
+		return snapshot;
+	}
+	
 	public void printBitSet()
 	{
 		//if (G.silent) return;
@@ -236,6 +295,9 @@ public abstract class Generator
 	public void removeCycles()
 	{
 		G.itraceln ("\nRemoving 4-cycles...");
+		if (rowSet == null)
+			throw new IllegalStateException ("H is mapped read-only");
+		snapshot = null;
 		FlexArray tmpArray = new FlexArray(G.MAXDEGREE);
 		for (int k=0; k<cycleArray.length; k+=4)
 		{
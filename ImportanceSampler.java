@@ -0,0 +1,208 @@
+/**
+ * Importance sampling estimate of the decoding failure rate of a Bernoulli erasure channel
+ * of probability p, far below the threshold, where plain trials almost never fail.
+ * The trials are drawn at a higher biased probability q, and each failure is weighted by
+ * the likelihood ratio of its erasure patterns, (p/q)^k ((1-p)/(1-q))^(N-k) for k erasures;
+ * in ARQ mode the ratios of all the transmissions of a trial are multiplied. The weighted
+ * mean is an unbiased estimate of the failure rate at p, and its standard error gives the
+ * confidence interval. The averages of the failed trials (stopping set size, H2 column rank,
+ * ML failures) are weighted the same way, so that they too are estimates at p; the stopping
+ * sets themselves are those of the biased trials.
+ * q is chosen for each p (see getBiasedProbability) : a fixed q far above p gives every
+ * trial a vanishing weight, and the estimate degenerates to a handful of failures.
+ * @author Rajaraman
+ */
+public class ImportanceSampler
+{
+	public static final double Z95 = 1.959964;  // two sided 95% normal quantile
+	int cols;
+	float prob, biasedProb;
+	double logErased, logKept;  // log likelihood ratio of one erased, one received bit
+	long trials, failures;
+	double sum, sumSquares;     // of the weights of the failed trials
+	double stopSetSum, columnRankSum, mlSum;  // weighted, of the failed trials
+
+	public void init (int _cols)
+	{
+		this.cols = _cols;
+		setProbabilities (0.0f, 0.0f);
+	}
+
+	/**
+	 * The biased probability for p : as high as maxProb, the neighbourhood of the threshold
+	 * where the failures are, but no further from p than a biased pattern of maxLogRatio,
+	 * i.e. whose weight, for the typical number of erasures, is exp(-maxLogRatio) at least.
+	 * The estimate is then reliable for failure rates down to about exp(-maxLogRatio);
+	 * below that, the failures are too rare at q as well.
+	 * @param maxLogRatio 0 for q = maxProb at every p
+	 */
+	public static float getBiasedProbability (float p, float maxProb, double maxLogRatio, int cols)
+	{
+		if (maxProb <= p)
+			return p;
+		if (maxLogRatio <= 0.0 || p <= 0.0f || cols*getDivergence(maxProb, p) <= maxLogRatio)
+			return maxProb;
+		// the divergence grows with q above p : bisection
+		float low = p, high = maxProb;
+		for (int i=0; i<40; i++)
+		{
+			float q = (low+high)/2.0f;
+			if (cols*getDivergence(q, p) <= maxLogRatio)
+				low = q;
+			else
+				high = q;
+		}
+		return low;
+	}
+
+	/**
+	 * @return the Kullback-Leibler divergence, per bit, of erasures at q from erasures at p :
+	 * minus the log weight of a pattern with the typical q*N erasures, divided by N
+	 */
+	public static double getDivergence (double q, double p)
+	{
+		return q*Math.log(q/p) + (1.0-q)*Math.log((1.0-q)/(1.0-p));
+	}
+
+	/**
+	 * Starts a new estimate
+	 * @param _prob the erasure probability whose failure rate is estimated
+	 * @param _biasedProb the erasure probability the trials are drawn at
+	 */
+	public void setProbabilities (float _prob, float _biasedProb)
+	{
+		if (_biasedProb < _prob || _biasedProb >= 1.0f || (_prob <= 0.0f && _biasedProb > 0.0f))
+			throw new RuntimeException ("Invalid biased erasure probability");
+		this.prob = _prob;
+		this.biasedProb = _biasedProb;
+		this.logErased = (prob > 0.0f ? Math.log ((double)prob/biasedProb) : 0.0);
+		this.logKept = Math.log1p (-prob) - Math.log1p (-biasedProb);
+		clear();
+	}
+
+	public void clear()
+	{
+		trials = 0;
+		failures = 0;
+		sum = 0.0;
+		sumSquares = 0.0;
+		stopSetSum = 0.0;
+		columnRankSum = 0.0;
+		mlSum = 0.0;
+	}
+
+	/**
+	 * @return log of the likelihood ratio of a pattern with this many erasures
+	 */
+	public double getLogWeight (int erasures)
+	{
+		return erasures*logErased + (cols-erasures)*logKept;
+	}
+
+	/**
+	 * Adds one trial of a batch, with all its transmissions
+	 * @return its weight if it failed, else 0
+	 */
+	public double addTrial (DecodeResults results, int index)
+	{
+		trials++;
+		if (results.isSuccess(index))
+			return 0.0;
+		double logWeight = 0.0;
+		for (int attempt=0; attempt<=results.getRetries(index); attempt++)
+			logWeight += getLogWeight (results.getErasureCount(index, attempt));
+		double weight = Math.exp (logWeight);
+		failures++;
+		sum += weight;
+		sumSquares += weight*weight;
+		return weight;
+	}
+
+	/**
+	 * Adds what was found of a failed trial, with the weight addTrial() returned for it
+	 */
+	public void addFailure (double weight, int stopSetSize, int columnRank, boolean mlFailure)
+	{
+		stopSetSum += weight*stopSetSize;
+		columnRankSum += weight*columnRank;
+		if (mlFailure)
+			mlSum += weight;
+	}
+
+	/**
+	 * @return the estimated failure rate at the unbiased probability
+	 */
+	public double getFailureRate()
+	{
+		return (trials > 0 ? sum/trials : 0.0);
+	}
+
+	/**
+	 * @return the estimated ML failure rate at the unbiased probability
+	 */
+	public double getMLFailureRate()
+	{
+		return (trials > 0 ? mlSum/trials : 0.0);
+	}
+
+	/**
+	 * @return the estimated stopping set size per trial (0 for a success), at the unbiased probability
+	 */
+	public double getAverageStopSetSize()
+	{
+		return (trials > 0 ? stopSetSum/trials : 0.0);
+	}
+
+	/**
+	 * @return the estimated H2 column rank per trial (0 for a success), at the unbiased probability
+	 */
+	public double getAverageColumnRank()
+	{
+		return (trials > 0 ? columnRankSum/trials : 0.0);
+	}
+
+	public double getStandardError()
+	{
+		if (trials < 2)
+			return 0.0;
+		double rate = getFailureRate();
+		double variance = (sumSquares/trials - rate*rate) * trials/(trials-1);
+		return Math.sqrt (Math.max (0.0, variance/trials));
+	}
+
+	public double getLowerBound()
+	{
+		return Math.max (0.0, getFailureRate() - Z95*getStandardError());
+	}
+
+	public double getUpperBound()
+	{
+		return getFailureRate() + Z95*getStandardError();
+	}
+
+	public float getProbability()
+	{
+		return prob;
+	}
+
+	public float getBiasedProbability()
+	{
+		return biasedProb;
+	}
+
+	public long getTrials()
+	{
+		return trials;
+	}
+
+	public long getFailures()
+	{
+		return failures;
+	}
+
+	public String toString()
+	{
+		return ("Importance sampling: p=" +prob +"; q=" +biasedProb +"; failure rate " +getFailureRate()
+			+" [" +getLowerBound() +", " +getUpperBound() +"]; " +failures +" failures in " +trials +" trials");
+	}
+}
@@ -0,0 +1,232 @@
+/**
+ * Maximum likelihood erasure decoder by inactivation.
+ * Peels like the TannerGraph decoder; when peeling stalls, one of the erased bits is marked
+ * inactive (treated as a symbolic unknown) and peeling goes on. Every repaired bit is then a
+ * linear combination of the inactive bits, and every parity equation finally becomes an
+ * equation on the inactive bits alone. Only this small system is solved, by packed GF(2)
+ * elimination : the erasures are recoverable iff its rank equals the number of inactive bits.
+ * Binary Erasure Channel is assumed; only recoverability is decided, not the bit values.
+ */
+import java.util.Arrays;
+import java.util.BitSet;
+
+public class InactivationDecoder
+{
+	SparseCode code = null;  // shared; never modified
+	int rows, cols;
+	BitSet erasures = null;  // the bits not yet repaired or inactivated
+	int[] erasureCount;  // residual erasures in each parity equation
+	int[] erasureXor;    // XOR of the residual erasure positions
+	int[] queue;         // parity equations having a single erasure
+	// the parity equations having two or more erasures, in one list per erasure count;
+	// the counts only go down, so the fewest erasures are found by a pointer that rarely moves up
+	int[] bucketHead;    // first equation of each count, or -1
+	int[] next, prev;    // the lists, linked through the equations
+	int minBucket;       // no equation with two or more erasures has fewer than this
+	long[] acc;          // per equation : the combination of inactive bits it adds up to, 'words' longs each
+	int words;           // current width of the combinations in longs
+	long[] expr;         // scratch : the combination for the bit being repaired
+	int inactiveCount;
+	int rank;
+	GF2 gf2 = GF2.KERNEL;
+
+	public void init (SparseCode _code)
+	{
+		this.code = _code;
+		this.rows = code.getRowCount();
+		this.cols = code.getColCount();
+		this.erasures = new BitSet(cols);
+		this.erasureCount = new int[rows];
+		this.erasureXor = new int[rows];
+		this.queue = new int[rows];
+		int maxDegree = 0;
+		for (int r=0; r<rows; r++)
+			maxDegree = Math.max (maxDegree, code.rowEnd(r)-code.rowStart(r));
+		this.bucketHead = new int[maxDegree+1];
+		this.next = new int[rows];
+		this.prev = new int[rows];
+		this.words = 1;
+		this.acc = new long[rows*words];
+		this.expr = new long[words];
+	}
+
+	/**
+	 * @param _erasures the erased positions; not modified
+	 * @return true if the erasures can be recovered by a maximum likelihood decoder
+	 */
+	public boolean decode (BitSet _erasures)
+	{
+		erasures.clear();
+		erasures.or (_erasures);
+		Arrays.fill (erasureCount, 0);
+		Arrays.fill (erasureXor, 0);
+		Arrays.fill (acc, 0L);
+		inactiveCount = 0;
+		rank = 0;
+		for (int c=erasures.nextSetBit(0); c>=0; c=erasures.nextSetBit(c+1))
+		{
+			for (int e=code.colStart(c); e<code.colEnd(c); e++)
+			{
+				++erasureCount[code.colIndex(e)];
+				erasureXor[code.colIndex(e)] ^= c;
+			}
+		}
+		int head=0, tail=0;
+		Arrays.fill (bucketHead, -1);
+		minBucket = bucketHead.length;
+		for (int row=0; row<rows; row++)
+		{
+			if (erasureCount[row]==1)
+				queue[tail++] = row;
+			else if (erasureCount[row] > 1)
+				link (row, erasureCount[row]);
+		}
+
+		while (true)
+		{
+			while (head < tail)
+			{
+				int row = queue[head++];
+				if (erasureCount[row] != 1) // already solved through another equation
+					continue;
+				int erasePos = erasureXor[row];
+				System.arraycopy (acc, row*words, expr, 0, words);
+				tail = remove (erasePos, tail);
+			}
+			if (erasures.isEmpty())
+				break;
+			// stalled : inactivate a bit of the equation with the fewest erasures
+			while (minBucket < bucketHead.length && bucketHead[minBucket] < 0)
+				minBucket++;
+			if (minBucket == bucketHead.length)
+				return false;  // the erasures left are in no parity equation at all
+			int row = bucketHead[minBucket];
+			int erasePos = -1;
+			for (int e=code.rowStart(row); e<code.rowEnd(row); e++)
+				if (erasures.get(code.rowIndex(e)))
+					erasePos = code.rowIndex(e);
+			if (inactiveCount == 64*words)
+				grow();
+			Arrays.fill (expr, 0L);
+			expr[inactiveCount >>> 6] = 1L << inactiveCount;
+			inactiveCount++;
+			tail = remove (erasePos, tail);
+		}
+		if (inactiveCount == 0)
+			return true;
+		rank = eliminate();
+		return (rank == inactiveCount);
+	}
+
+	/**
+	 * The given bit is now known as the combination 'expr' of inactive bits :
+	 * it is taken out of its parity equations, which add up this combination.
+	 * @return the new tail of the queue
+	 */
+	protected int remove (int erasePos, int tail)
+	{
+		erasures.clear(erasePos);
+		for (int e=code.colStart(erasePos); e<code.colEnd(erasePos); e++)
+		{
+			int r = code.colIndex(e);
+			if (erasureCount[r] > 1)
+				unlink (r, erasureCount[r]);
+			--erasureCount[r];
+			if (erasureCount[r] > 1)
+				link (r, erasureCount[r]);
+			erasureXor[r] ^= erasePos;
+			gf2.xorInto (acc, r*words, expr, 0, words);
+			if (erasureCount[r]==1)
+				queue[tail++] = r;
+		}
+		return tail;
+	}
+
+	private void link (int row, int count)
+	{
+		prev[row] = -1;
+		next[row] = bucketHead[count];
+		if (next[row] >= 0)
+			prev[next[row]] = row;
+		bucketHead[count] = row;
+		if (count < minBucket)
+			minBucket = count;
+	}
+
+	private void unlink (int row, int count)
+	{
+		if (prev[row] >= 0)
+			next[prev[row]] = next[row];
+		else
+			bucketHead[count] = next[row];
+		if (next[row] >= 0)
+			prev[next[row]] = prev[row];
+	}
+
+	/**
+	 * Widens the combinations by doubling the number of longs per equation
+	 */
+	protected void grow()
+	{
+		int newWords = 2*words;
+		long[] tmp = new long[rows*newWords];
+		for (int r=0; r<rows; r++)
+			System.arraycopy (acc, r*words, tmp, r*newWords, words);
+		acc = tmp;
+		words = newWords;
+		expr = new long[words];
+	}
+
+	/**
+	 * Every parity equation now adds up to a combination of the inactive bits, which must be zero.
+	 * Finds the rank of this system by packed Gaussian elimination, in place on 'acc'.
+	 * @return the rank
+	 */
+	protected int eliminate()
+	{
+		int pivots = 0;  // equations above this row are pivot equations
+		for (int col=0; col<inactiveCount; col++)
+		{
+			int w = col >>> 6;
+			long bit = 1L << col;
+			int pivotRow = -1;
+			for (int r=pivots; r<rows; r++)
+			{
+				if ((acc[r*words+w] & bit) != 0L)
+				{
+					pivotRow = r;
+					break;
+				}
+			}
+			if (pivotRow < 0) continue;
+			if (pivotRow != pivots)
+			{
+				System.arraycopy (acc, pivotRow*words, expr, 0, words);
+				System.arraycopy (acc, pivots*words, acc, pivotRow*words, words);
+				System.arraycopy (expr, 0, acc, pivots*words, words);
+			}
+			for (int r=pivotRow+1; r<rows; r++)
+				if ((acc[r*words+w] & bit) != 0L)
+					gf2.xorInto (acc, r*words, acc, pivots*words, words);
+			pivots++;
+			if (pivots == inactiveCount) break;
+		}
+		return pivots;
+	}
+
+	/**
+	 * @return the number of bits inactivated by the last decode()
+	 */
+	public int getInactiveCount()
+	{
+		return inactiveCount;
+	}
+
+	/**
+	 * @return the rank of the system on the inactive bits, after the last decode()
+	 */
+	public int getRank()
+	{
+		return rank;
+	}
+}
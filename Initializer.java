@@ -1,8 +1,9 @@
 import java.io.FileInputStream;
+import java.util.ArrayList;
 import java.util.Properties;
 import java.util.StringTokenizer;
 
-public class Initializer 
+public class Initializer implements Cloneable
 {
 	int numTrials = 10;    // each experiment will be repeated this many times
 	int zoomNumTrials = 20;    // number of trials in zoom mode
@@ -17,6 +18,41 @@ public class Initializer
 	public double[] nodeFractions1;   // fraction of total nodes with the given degree
 	public int[] allowedDegrees2;
 	public double[] nodeFractions2;   // fraction of total nodes with the given degree
+	boolean bitSliced = false;   // decode 64*sliceWords trials together
+	int sliceWords = 1;
+	boolean mlDecoding = false;  // also try the maximum likelihood decoder on every failure
+	boolean decoderStats = false; // log iteration and stall statistics of the decoder
+	String rankEngine = "gauss";  // H2 column rank by : gauss (Matrix), m4ri (PackedMatrix) or basis (ColumnRankEngine)
+	boolean rankCurve = false;    // log the H2 rank of nested erasure sets over each sweep
+	boolean parallelRank = false; // gauss engine : triangulate large matrices on all the cores
+	String channelModel = "systematic";  // erasures : systematic (fixed count), bernoulli (independent bits) or gilbert_elliott (bursts)
+	float burstGoodToBad = 0.02f;  // gilbert_elliott : transition probabilities per bit
+	float burstBadToGood = 0.2f;
+	float burstGoodErasure = 0.05f; // gilbert_elliott : per-state erasure rates, scaled to each erasure probability
+	float burstBadErasure = 0.5f;
+	boolean importanceSampling = false;  // bernoulli channel : estimate the failure rate from trials drawn at biasedProb
+	float biasedProb = 0.45f;        // importance sampling : the highest biased probability, near the threshold
+	float biasedLogRatio = 20.0f;    // importance sampling : keeps the bias for each p within this log likelihood ratio (0 : always biasedProb)
+	boolean adaptiveTrials = false;  // run each probability until the failure rate interval is narrow enough
+	int minTrials = 64;              // adaptive : trials at each probability, at least and at most
+	int maxTrials = 4096;
+	float intervalWidth = 0.1f;      // adaptive : target width of the 95% interval (relative, with importance sampling)
+	boolean thresholdSearch = false; // replace the zoom pass by a bisection for the knee, 50% point and plateau
+	float searchResolution = 0.002f; // threshold search : probability resolution; uses min_trials and max_trials
+	int threadCount = 1;          // threads running the trials; 0 for one per core
+	long channelSeed = 1;         // run seed of the channel random streams; the same seed gives the same erasures
+	String codeStore = "";        // directory for memory-mapped code files; empty to keep H on the heap
+	String spoolDir = "";         // work queue directory shared with worker processes; empty to run all the trials here
+	int shardTrials = 1024;       // trials per work unit of the spool
+	int shardLease = 600;         // seconds a claimed unit may go without news from its worker before it is run again
+	String checkpointFile = "";   // where the state of the run is saved periodically; empty to disable
+	int checkpointInterval = 60;  // seconds between two checkpoints; 0 for one after every batch
+	boolean resume = false;       // continue the run saved in the checkpoint file, instead of starting a new one
+	// campaign grid : every value of the code parameters, given as lists "a; b; c" or ranges "first:last:step"
+	int[] colsGrid, rows1Grid, rows2Grid;
+	int[][] degrees1Grid, degrees2Grid;        // allowed_degrees lists, each paired with the node_fractions
+	double[][] fractions1Grid, fractions2Grid; // list of the same position, or the only one
+	int campaignThreads = 1;      // grid cells simulated at the same time; 0 for one per core
 	
 	public void init (String fileName) throws Exception
 	{
@@ -25,11 +61,14 @@ public class Initializer
         String str;
 
         str = prop.getProperty ("block_length", "24").trim(); 
-        cols = Integer.parseInt(str);
+        colsGrid = parseIntGrid(str);
+        cols = colsGrid[0];
         str = prop.getProperty ("check_length1", "10").trim(); 
-        rows1 = Integer.parseInt(str);
+        rows1Grid = parseIntGrid(str);
+        rows1 = rows1Grid[0];
         str = prop.getProperty ("check_length2", "8").trim(); 
-        rows2 = Integer.parseInt(str);
+        rows2Grid = parseIntGrid(str);
+        rows2 = rows2Grid[0];
         
         str = prop.getProperty ("row_weight1", "6").trim(); 
         rowwt1 = Integer.parseInt(str);
@@ -61,13 +100,162 @@ public class Initializer
         zoomNumTrials = Integer.parseInt(str);
         
         str = prop.getProperty ("allowed_degrees1", "3").trim(); 
-        allowedDegrees1 = parseDegrees (str);
+        degrees1Grid = parseDegreeGrid (str);
+        allowedDegrees1 = degrees1Grid[0];
         str = prop.getProperty ("allowed_degrees2", "3").trim(); 
-        allowedDegrees2 = parseDegrees (str);
+        degrees2Grid = parseDegreeGrid (str);
+        allowedDegrees2 = degrees2Grid[0];
         str = prop.getProperty ("node_fractions1", "1.0").trim(); 
-        nodeFractions1 = parseNodeFractions (str);
+        fractions1Grid = parseFractionGrid (str, degrees1Grid.length);
+        nodeFractions1 = fractions1Grid[0];
         str = prop.getProperty ("node_fractions2", "1.0").trim(); 
-        nodeFractions2 = parseNodeFractions (str);
+        fractions2Grid = parseFractionGrid (str, degrees2Grid.length);
+        nodeFractions2 = fractions2Grid[0];
+        
+        str = prop.getProperty ("bit_sliced", "false").trim(); 
+        bitSliced = (str.equalsIgnoreCase("true") ? true : false);
+        str = prop.getProperty ("slice_words", "1").trim(); 
+        sliceWords = Integer.parseInt(str);
+        str = prop.getProperty ("ml_decoding", "false").trim(); 
+        mlDecoding = (str.equalsIgnoreCase("true") ? true : false);
+        str = prop.getProperty ("decoder_stats", "false").trim(); 
+        decoderStats = (str.equalsIgnoreCase("true") ? true : false);
+        str = prop.getProperty ("rank_engine", "gauss").trim(); 
+        rankEngine = str.toLowerCase();
+        str = prop.getProperty ("rank_curve", "false").trim(); 
+        rankCurve = (str.equalsIgnoreCase("true") ? true : false);
+        str = prop.getProperty ("parallel_rank", "false").trim(); 
+        parallelRank = (str.equalsIgnoreCase("true") ? true : false);
+        str = prop.getProperty ("channel_model", "systematic").trim(); 
+        channelModel = str.toLowerCase();
+        str = prop.getProperty ("burst_good_to_bad", "0.02").trim(); 
+        burstGoodToBad = Float.parseFloat(str);
+        str = prop.getProperty ("burst_bad_to_good", "0.2").trim(); 
+        burstBadToGood = Float.parseFloat(str);
+        str = prop.getProperty ("burst_good_erasure", "0.05").trim(); 
+        burstGoodErasure = Float.parseFloat(str);
+        str = prop.getProperty ("burst_bad_erasure", "0.5").trim(); 
+        burstBadErasure = Float.parseFloat(str);
+        str = prop.getProperty ("importance_sampling", "false").trim(); 
+        importanceSampling = (str.equalsIgnoreCase("true") ? true : false);
+        str = prop.getProperty ("biased_prob", "0.45").trim(); 
+        biasedProb = Float.parseFloat(str);
+        str = prop.getProperty ("biased_log_ratio", "20").trim(); 
+        biasedLogRatio = Float.parseFloat(str);
+        str = prop.getProperty ("adaptive_trials", "false").trim(); 
+        adaptiveTrials = (str.equalsIgnoreCase("true") ? true : false);
+        str = prop.getProperty ("min_trials", "64").trim(); 
+        minTrials = Integer.parseInt(str);
+        str = prop.getProperty ("max_trials", "4096").trim(); 
+        maxTrials = Integer.parseInt(str);
+        str = prop.getProperty ("interval_width", "0.1").trim(); 
+        intervalWidth = Float.parseFloat(str);
+        str = prop.getProperty ("threshold_search", "false").trim(); 
+        thresholdSearch = (str.equalsIgnoreCase("true") ? true : false);
+        str = prop.getProperty ("search_resolution", "0.002").trim(); 
+        searchResolution = Float.parseFloat(str);
+        str = prop.getProperty ("num_threads", "1").trim(); 
+        threadCount = Integer.parseInt(str);
+        str = prop.getProperty ("channel_seed", "1").trim(); 
+        channelSeed = Long.parseLong(str);
+        codeStore = prop.getProperty ("code_store", "").trim(); 
+        spoolDir = prop.getProperty ("spool_dir", "").trim(); 
+        str = prop.getProperty ("shard_trials", "1024").trim(); 
+        shardTrials = Integer.parseInt(str);
+        str = prop.getProperty ("shard_lease", "600").trim(); 
+        shardLease = Integer.parseInt(str);
+        checkpointFile = prop.getProperty ("checkpoint_file", "").trim(); 
+        str = prop.getProperty ("checkpoint_interval", "60").trim(); 
+        checkpointInterval = Integer.parseInt(str);
+        str = prop.getProperty ("resume", "false").trim(); 
+        resume = (str.equalsIgnoreCase("true") ? true : false);
+        str = prop.getProperty ("campaign_threads", "1").trim(); 
+        campaignThreads = Integer.parseInt(str);
+	}
+	
+	/**
+	 * Parses a list of values separated by ';', each a number or a range first:last[:step]
+	 */
+	protected int[] parseIntGrid (String str)
+	{
+		ArrayList<Integer> values = new ArrayList<Integer>();
+		StringTokenizer tok = new StringTokenizer(str, ";");
+		while (tok.hasMoreTokens())
+		{
+			String item = tok.nextToken().trim();
+			String[] range = item.split(":");
+			int first = Integer.parseInt(range[0].trim());
+			int last = (range.length > 1 ? Integer.parseInt(range[1].trim()) : first);
+			int step = (range.length > 2 ? Integer.parseInt(range[2].trim()) : 1);
+			if (step <= 0 || range.length > 3)
+				throw new IllegalArgumentException ("Invalid range: " +item);
+			for (int v=first; v<=last; v+=step)
+				values.add(v);
+		}
+		if (values.isEmpty())
+			throw new IllegalArgumentException ("No values in: " +str);
+		int[] grid = new int[values.size()];
+		for (int i=0; i<grid.length; i++)
+			grid[i] = values.get(i);
+		return grid;
+	}
+	
+	/**
+	 * Parses a list of degree sets separated by ';'
+	 */
+	protected int[][] parseDegreeGrid (String str)
+	{
+		String[] items = str.split(";");
+		int[][] grid = new int[items.length][];
+		for (int i=0; i<items.length; i++)
+			grid[i] = parseDegrees (items[i].trim());
+		return grid;
+	}
+	
+	/**
+	 * Parses the node fractions of each degree set; a single list applies to all of them
+	 */
+	protected double[][] parseFractionGrid (String str, int count)
+	{
+		String[] items = str.split(";");
+		if (items.length != 1 && items.length != count)
+			throw new IllegalArgumentException ("Expected 1 or " +count +" node fraction lists: " +str);
+		double[][] grid = new double[count][];
+		for (int i=0; i<count; i++)
+			grid[i] = parseNodeFractions (items[items.length == 1 ? 0 : i].trim());
+		return grid;
+	}
+	
+	/**
+	 * @return true if the code parameters have more than one value : a campaign over their grid
+	 */
+	public boolean isCampaign()
+	{
+		return (colsGrid.length*rows1Grid.length*rows2Grid.length*degrees1Grid.length*degrees2Grid.length > 1);
+	}
+	
+	/**
+	 * @return the settings of one cell of the grid; the others are shared
+	 */
+	public Initializer getCell (int col, int row1, int row2, int degree1, int degree2)
+	{
+		Initializer cell;
+		try
+		{
+			cell = (Initializer) clone();
+		}
+		catch (CloneNotSupportedException e)
+		{
+			throw new RuntimeException (e);
+		}
+		cell.cols = colsGrid[col];
+		cell.rows1 = rows1Grid[row1];
+		cell.rows2 = rows2Grid[row2];
+		cell.allowedDegrees1 = degrees1Grid[degree1];
+		cell.nodeFractions1 = fractions1Grid[degree1];
+		cell.allowedDegrees2 = degrees2Grid[degree2];
+		cell.nodeFractions2 = fractions2Grid[degree2];
+		return cell;
 	}
 	
 	protected int[] parseDegrees (String str)
@@ -131,6 +319,79 @@ public class Initializer
 	{ return nodeFractions1; }
 	public double[] getNodeFractions2()
 	{ return nodeFractions2; }
+	
+	public boolean isBitSliced()
+	{ return bitSliced; }
+	public int getSliceWords()
+	{ return sliceWords; }
+	public boolean isMLDecoding()
+	{ return mlDecoding; }
+	public boolean isDecoderStats()
+	{ return decoderStats; }
+	public String getRankEngine()
+	{ return rankEngine; }
+	public boolean isRankCurve()
+	{ return rankCurve; }
+	public boolean isParallelRank()
+	{ return parallelRank; }
+	public String getChannelModel()
+	{ return channelModel; }
+	public float getBurstGoodToBad()
+	{ return burstGoodToBad; }
+	public float getBurstBadToGood()
+	{ return burstBadToGood; }
+	public float getBurstGoodErasure()
+	{ return burstGoodErasure; }
+	public float getBurstBadErasure()
+	{ return burstBadErasure; }
+	public boolean isImportanceSampling()
+	{ return importanceSampling; }
+	public float getBiasedProb()
+	{ return biasedProb; }
+	public float getBiasedLogRatio()
+	{ return biasedLogRatio; }
+	public boolean isAdaptiveTrials()
+	{ return adaptiveTrials; }
+	public int getMinTrials()
+	{ return minTrials; }
+	public int getMaxTrials()
+	{ return maxTrials; }
+	public float getIntervalWidth()
+	{ return intervalWidth; }
+	public boolean isThresholdSearch()
+	{ return thresholdSearch; }
+	public float getSearchResolution()
+	{ return searchResolution; }
+	public int getThreadCount()
+	{ return threadCount; }
+	public long getChannelSeed()
+	{ return channelSeed; }
+	public String getCodeStore()
+	{ return codeStore; }
+	public String getSpoolDir()
+	{ return spoolDir; }
+	public int getShardTrials()
+	{ return shardTrials; }
+	public int getShardLease()
+	{ return shardLease; }
+	public String getCheckpointFile()
+	{ return checkpointFile; }
+	public int getCheckpointInterval()
+	{ return checkpointInterval; }
+	public boolean isResume()
+	{ return resume; }
+	public int[] getColsGrid()
+	{ return colsGrid; }
+	public int[] getRows1Grid()
+	{ return rows1Grid; }
+	public int[] getRows2Grid()
+	{ return rows2Grid; }
+	public int getDegrees1Count()
+	{ return degrees1Grid.length; }
+	public int getDegrees2Count()
+	{ return degrees2Grid.length; }
+	public int getCampaignThreads()
+	{ return campaignThreads; }
 }
 
 
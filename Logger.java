@@ -7,8 +7,37 @@ import java.util.Calendar;
 public class Logger 
 {
 	PrintWriter writer, cwriter;
+	FileOutputStream stream, cstream;  // under the writers, to sync the files; null for any other writer
+	String fileName, cfileName;
 	
 	public void init () throws Exception
+	{
+		String prefix = getFilePrefix();
+		cfileName = prefix+"C"+G.LOG_SUFFIX;
+		fileName = prefix+G.LOG_SUFFIX;
+		stream = new FileOutputStream(fileName);
+		cstream = new FileOutputStream(cfileName);
+		writer = new PrintWriter(stream);
+		cwriter = new PrintWriter(cstream);
+	}
+	
+	/**
+	 * Logs the trials to a file, and the cumulative results to any writer, e.g. a buffer
+	 */
+	public void init (String _fileName, Writer cumulative) throws IOException
+	{
+		fileName = _fileName;
+		cfileName = null;
+		stream = new FileOutputStream(fileName);
+		cstream = null;
+		writer = new PrintWriter(stream);
+		cwriter = new PrintWriter(cumulative);
+	}
+	
+	/**
+	 * @return the log file name up to the suffix, with the current date and time
+	 */
+	public static String getFilePrefix()
 	{
 		StringBuilder builder = new StringBuilder (G.LOG_PREFIX);
 		Calendar cal = Calendar.getInstance();
@@ -24,12 +53,71 @@ public class Logger
 		builder.append(i); builder.append("-");
 		i = cal.get(Calendar.SECOND);
 		builder.append(i); 
-		String cumulativeFile = builder.toString()+"C"+G.LOG_SUFFIX;
-		builder.append(G.LOG_SUFFIX);
-		writer = new PrintWriter(builder.toString());
-		cwriter = new PrintWriter(cumulativeFile);
+		return builder.toString();
 	}
 	
+	/**
+	 * Reopens the files of an interrupted run to append to them, after cutting off
+	 * what was written past the given lengths
+	 */
+	public void reopen (String _fileName, long length, String _cfileName, long clength) throws IOException
+	{
+		fileName = _fileName;
+		cfileName = _cfileName;
+		truncate (fileName, length);
+		truncate (cfileName, clength);
+		stream = new FileOutputStream (fileName, true);
+		cstream = new FileOutputStream (cfileName, true);
+		writer = new PrintWriter (stream);
+		cwriter = new PrintWriter (cstream);
+	}
+	
+	private static void truncate (String name, long length) throws IOException
+	{
+		RandomAccessFile file = new RandomAccessFile (name, "rw");
+		try
+		{
+			file.setLength (length);
+		}
+		finally
+		{
+			file.close();
+		}
+	}
+	
+	/**
+	 * Writes out everything logged so far
+	 */
+	public void flush()
+	{
+		writer.flush();
+		cwriter.flush();
+	}
+	
+	/**
+	 * Flushes the files, and forces them to the disk
+	 */
+	public void sync() throws IOException
+	{
+		flush();
+		stream.getFD().sync();
+		if (cstream != null)
+			cstream.getFD().sync();
+	}
+	
+	public String getFileName()
+	{ return fileName; }
+	public String getCumulativeFileName()
+	{ return cfileName; }
+	
+	/**
+	 * @return the length of the file, once flushed
+	 */
+	public long getLength()
+	{ return new File(fileName).length(); }
+	public long getCumulativeLength()
+	{ return new File(cfileName).length(); }
+	
 	public void log (String str)
 	{
 		writer.write (str +",");
@@ -92,6 +180,8 @@ public class Logger
 	
 	public void close()
 	{
+		if (writer == null)  // never opened
+			return;
 		writer.flush();
 		writer.close();
 		cwriter.flush();
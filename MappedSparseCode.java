@@ -0,0 +1,245 @@
+/**
+ * SparseCode whose CSR/CSC edge arrays live in a memory-mapped file instead of the heap.
+ * The file is mapped read-only, so any number of decoders, and of JVMs on the same host,
+ * share one copy of the code through the page cache; the accessors read it in place.
+ * File layout, little endian ints :
+ *   MAGIC, rows, cols, edges, rowStart[rows+1], rowIndex[edges], colStart[cols+1], colIndex[edges]
+ * One mapping is limited to 2 GB, which is some 250 million edges.
+ * A file is written under a temporary name and renamed into place, never rewritten in place :
+ * a JVM that still maps an older file of the same name keeps reading the old, intact copy.
+ * @author Rajaraman
+ */
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+public class MappedSparseCode extends SparseCode
+{
+	public static final int MAGIC = 0x4C445043;  // "LDPC"
+	protected final int edges;
+	protected final IntBuffer rowStartBuf;
+	protected final IntBuffer rowIndexBuf;
+	protected final IntBuffer colStartBuf;
+	protected final IntBuffer colIndexBuf;
+
+	protected MappedSparseCode (int _rows, int _cols, int _edges, IntBuffer all)
+	{
+		super (_rows, _cols);
+		edges = _edges;
+		int pos = 4;
+		rowStartBuf = slice (all, pos, rows+1);
+		pos += rows+1;
+		rowIndexBuf = slice (all, pos, edges);
+		pos += edges;
+		colStartBuf = slice (all, pos, cols+1);
+		pos += cols+1;
+		colIndexBuf = slice (all, pos, edges);
+	}
+
+	private static IntBuffer slice (IntBuffer all, int pos, int len)
+	{
+		IntBuffer dup = all.duplicate();
+		dup.position (pos);
+		dup.limit (pos+len);
+		return dup.slice();
+	}
+
+	/**
+	 * Maps an existing code file read-only
+	 */
+	public static MappedSparseCode open (String fileName) throws IOException
+	{
+		RandomAccessFile file = new RandomAccessFile (fileName, "r");
+		try
+		{
+			FileChannel channel = file.getChannel();
+			MappedByteBuffer buf = channel.map (FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			IntBuffer all = buf.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+			if (all.get(0) != MAGIC)
+				throw new IOException ("Not a code file: " +fileName);
+			int rows = all.get(1), cols = all.get(2), edges = all.get(3);
+			if (all.capacity() < 4 + rows+1 + cols+1 + 2L*edges)
+				throw new IOException ("Truncated code file: " +fileName);
+			return new MappedSparseCode (rows, cols, edges, all);
+		}
+		finally
+		{
+			file.close();  // the mapping stays valid
+		}
+	}
+
+	/**
+	 * Writes a code given as jagged row and column lists (rows or columns with no
+	 * connections may be null) straight into a mapped file, without building the
+	 * compressed arrays on the heap; then renames it, atomically, to fileName
+	 */
+	public static void write (String fileName, int rows, int cols, int[][] rowSet, int[][] colSet) throws IOException
+	{
+		long edges = 0, colEdges = 0;
+		for (int r=0; r<rows; r++)
+			edges += (rowSet[r]==null ? 0 : rowSet[r].length);
+		for (int c=0; c<cols; c++)
+			colEdges += (colSet[c]==null ? 0 : colSet[c].length);
+		if (edges != colEdges)
+			throw new IllegalArgumentException ("Row and column connections do not tally");
+		write (fileName, rows, cols, edges, null, rowSet, colSet);
+	}
+
+	/**
+	 * Writes any sparse code, e.g. one already on the heap, section by section from its
+	 * arrays, its mapped buffers or its accessors : no copy of the code is built on the heap
+	 */
+	public static void write (String fileName, SparseCode code) throws IOException
+	{
+		write (fileName, code.getRowCount(), code.getColCount(), code.getEdgeCount(), code, null, null);
+	}
+
+	/**
+	 * Maps a temporary file beside fileName, fills it from the code or else from the jagged
+	 * lists, and renames it into place
+	 */
+	private static void write (String fileName, int rows, int cols, long edges, SparseCode code, int[][] rowSet, int[][] colSet) throws IOException
+	{
+		long bytes = 4L * (4 + rows+1 + cols+1 + 2*edges);
+		if (bytes > Integer.MAX_VALUE)
+			throw new IllegalArgumentException ("Code too large for one mapping");
+		File target = new File (fileName).getAbsoluteFile();
+		File tmp = File.createTempFile (target.getName() +"-", ".tmp", target.getParentFile());
+		try
+		{
+			RandomAccessFile file = new RandomAccessFile (tmp, "rw");
+			try
+			{
+				file.setLength (bytes);
+				MappedByteBuffer buf = file.getChannel().map (FileChannel.MapMode.READ_WRITE, 0, bytes);
+				IntBuffer out = buf.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+				out.put (MAGIC).put (rows).put (cols).put ((int)edges);
+				if (code instanceof MappedSparseCode)  // the sections of its file, as they are
+				{
+					MappedSparseCode mapped = (MappedSparseCode) code;
+					out.put (mapped.rowStartBuf.duplicate());
+					out.put (mapped.rowIndexBuf.duplicate());
+					out.put (mapped.colStartBuf.duplicate());
+					out.put (mapped.colIndexBuf.duplicate());
+				}
+				else if (code != null && code.rowStart != null)
+				{
+					out.put (code.rowStart);
+					out.put (code.rowIndex);
+					out.put (code.colStart);
+					out.put (code.colIndex);
+				}
+				else if (code != null)
+				{
+					putRows (out, code);
+					putCols (out, code);
+				}
+				else
+				{
+					putCompressed (out, rows, rowSet);
+					putCompressed (out, cols, colSet);
+				}
+				if (out.position() != out.capacity())
+					throw new IllegalArgumentException ("Row and column connections do not tally");
+				buf.force();
+			}
+			finally
+			{
+				file.close();
+			}
+			Files.move (tmp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		}
+		finally
+		{
+			tmp.delete();  // if it was not renamed
+		}
+	}
+
+	/**
+	 * Writes the start offsets, then the indices, of a jagged list
+	 */
+	private static void putCompressed (IntBuffer out, int count, int[][] set)
+	{
+		int start = 0;
+		out.put (start);
+		for (int i=0; i<count; i++)
+		{
+			start += (set[i]==null ? 0 : set[i].length);
+			out.put (start);
+		}
+		for (int i=0; i<count; i++)
+			if (set[i] != null)
+				out.put (set[i]);
+	}
+
+	/**
+	 * Writes the row offsets, then the row indices, of a code through its accessors
+	 */
+	private static void putRows (IntBuffer out, SparseCode code)
+	{
+		int rows = code.getRowCount();
+		for (int r=0; r<rows; r++)
+			out.put (code.rowStart(r));
+		out.put (rows > 0 ? code.rowEnd(rows-1) : 0);
+		for (int r=0; r<rows; r++)
+			for (int e=code.rowStart(r); e<code.rowEnd(r); e++)
+				out.put (code.rowIndex(e));
+	}
+
+	private static void putCols (IntBuffer out, SparseCode code)
+	{
+		int cols = code.getColCount();
+		for (int c=0; c<cols; c++)
+			out.put (code.colStart(c));
+		out.put (cols > 0 ? code.colEnd(cols-1) : 0);
+		for (int c=0; c<cols; c++)
+			for (int e=code.colStart(c); e<code.colEnd(c); e++)
+				out.put (code.colIndex(e));
+	}
+
+	public int getEdgeCount()
+	{
+		return edges;
+	}
+
+	public int rowStart (int row)
+	{
+		return rowStartBuf.get(row);
+	}
+
+	public int rowEnd (int row)
+	{
+		return rowStartBuf.get(row+1);
+	}
+
+	public int rowIndex (int edge)
+	{
+		return rowIndexBuf.get(edge);
+	}
+
+	public int colStart (int col)
+	{
+		return colStartBuf.get(col);
+	}
+
+	public int colEnd (int col)
+	{
+		return colStartBuf.get(col+1);
+	}
+
+	public int colIndex (int edge)
+	{
+		return colIndexBuf.get(edge);
+	}
+
+	public String toString()
+	{
+		return ("MappedSparseCode: " +rows +" rows; " +cols +" cols; " +edges +" edges");
+	}
+}
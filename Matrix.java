@@ -1,26 +1,100 @@
-
 /**
-This class represents the parity check matrix; 
+This class represents the parity check matrix;
 The class is enhanced : it can find the rank of itself, or a selected
 subset of its columns
+The rows are packed 64 bits to a long, one long[] per row, and the row operations
+are done by the GF2 kernels
 **/
 
 import java.util.BitSet;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
-public class Matrix
+public class Matrix implements RankEngine
 {
     protected int rows;
     protected int cols;
-    public BitSet[] rowSet;
-   
-    public void init (int _rows, int _cols, BitSet[] _rowSet) 
+    protected int words;      // longs per row
+    protected long[][] bits;  // bit c of row r is bit (c & 63) of bits[r][c >>> 6]
+    protected long[] maskWords;  // scratch for selectColumns()
+    protected GF2 gf2 = GF2.KERNEL;
+    protected CodeSnapshot code = null;  // the source of the rows restored by getColumnRank()
+    protected boolean parallel = false;  // triangulate on the common ForkJoinPool
+    protected int[] pivots;   // parallel mode : the pivot positions of the current batch
+    protected int[] applied;  // parallel mode : number of batch pivots already applied to each row
+
+    /**
+     * The rows are copied into the packed array, which is reused if it is large enough;
+     * the BitSets are not modified
+     */
+    public void init (int _rows, int _cols, BitSet[] _rowSet)
     {
     	this.rows = _rows;  // to enable re-initialization with a different matrix
     	this.cols = _cols;
-    	this.rowSet = _rowSet;
+    	this.words = (cols+63) >>> 6;
+    	if (bits == null || bits.length < rows || bits.length == 0 || bits[0].length < words)
+    		bits = new long[rows][words];
+    	for (int r=0; r<rows; r++)
+    	{
+    		long[] w = _rowSet[r].toLongArray();
+    		int len = Math.min (w.length, words);
+    		System.arraycopy (w, 0, bits[r], 0, len);
+    		java.util.Arrays.fill (bits[r], len, bits[r].length, 0L);
+    		if ((cols & 63) != 0 && len == words)
+    			bits[r][words-1] &= (1L << cols) - 1;  // drop any bits beyond the last column
+    	}
+    }
+
+    /**
+     * Binds this matrix to a snapshot; the rows are restored from it by every getColumnRank()
+     */
+    public void init (CodeSnapshot _code)
+    {
+    	this.code = _code;
+    	this.rows = code.getRowCount();
+    	this.cols = code.getColCount();
+    	this.words = code.getWordCount();
+    	if (bits == null || bits.length < rows || bits.length == 0 || bits[0].length < words)
+    		bits = new long[rows][words];
+    }
+
+    /**
+     * Restores the rows from the snapshot, then selects the columns and triangulates
+     * @return the rank of the selected columns
+     */
+    public int getColumnRank (BitSet columns)
+    {
+    	for (int r=0; r<rows; r++)
+    	{
+    		code.copyRow (r, bits[r], 0);
+    		java.util.Arrays.fill (bits[r], words, bits[r].length, 0L);
+    	}
+    	selectColumns (columns);
+    	return getRank();
+    }
+
+    public boolean get (int row, int col)
+    {
+    	return (bits[row][col >>> 6] & (1L << col)) != 0L;
     }
-    
+
+    public void set (int row, int col, boolean value)
+    {
+    	if (value)
+    		bits[row][col >>> 6] |= 1L << col;
+    	else
+    		bits[row][col >>> 6] &= ~(1L << col);
+    }
+
+	/**
+	 * In parallel mode, large matrices are triangulated by triangulateParallel()
+	 */
+	public void setParallel (boolean _parallel)
+	{
+		this.parallel = _parallel;
+	}
+
 	/**
 	 * reduce this matrix to triangular row echelon form
 	 * Note : The original matrix is DESTROYED
@@ -28,13 +102,18 @@ public class Matrix
 	 */
 	public void triangulate()
 	{
+		if (parallel && rows >= G.PARALLEL_MIN_ROWS)
+		{
+			triangulateParallel();
+			return;
+		}
 		for (int c=0; c<cols; c++)
 		{
 			if (cols > rows && c==rows) break; // we have run out of rows
-			if (!rowSet[c].get(c))
-				if (!swapRows (c,c)) 
+			if (!get(c,c))
+				if (!swapRows (c,c))
 					if (!swapCols(c,c))
-						continue;  
+						continue;
 			makePivotColumZero(c,c);
 		}
 		//G.traceln ("triangulate() completed:");
@@ -52,12 +131,12 @@ public class Matrix
 	{
 		for (int r=pivotRow+1; r<rows; r++)
 		{
-			if (rowSet[r].get(pivotCol)) 
+			if (get(r,pivotCol))
 			{
 				//G.traceln ("swapping row "+pivotRow +" with " +r);
-				rowSet[r].xor(rowSet[pivotRow]);
-				rowSet[pivotRow].xor(rowSet[r]);
-				rowSet[r].xor(rowSet[pivotRow]);
+				long[] tmp = bits[r];
+				bits[r] = bits[pivotRow];
+				bits[pivotRow] = tmp;
 				return true;
 			}
 		}
@@ -75,34 +154,136 @@ public class Matrix
 	{
 		for (int c=pivotCol+1; c<cols; c++)
 		{
-			if (!rowSet[pivotRow].get(c)) continue;
+			if (!get(pivotRow,c)) continue;
 			//G.traceln ("swapping col "+pivotCol +" with " +c);
 			boolean tmp;
-			for (int r=0; r<rows; r++)  
+			for (int r=0; r<rows; r++)
 			{
-				tmp = rowSet[r].get(c);
-				rowSet[r].set (c, rowSet[r].get(pivotCol));
-				rowSet[r].set(pivotCol, tmp);
+				tmp = get(r,c);
+				set (r, c, get(r,pivotCol));
+				set (r, pivotCol, tmp);
 			}
 			return true;
 		}
 		return false;
 	}
-	
+
 	/**
-	 * Makes all elements of the pivot column, below the pivot element, to be zero
+	 * Makes all elements of the pivot column, below the pivot element, to be zero.
+	 * The rows involved are zero to the left of the pivot, so the XOR starts at its word.
 	 */
 	private void makePivotColumZero(int pivotRow, int pivotCol)
 	{
+		int w = pivotCol >>> 6;
 		for (int r=pivotRow+1; r<rows; r++)
 		{
-			if (rowSet[r].get(pivotCol))
-				rowSet[r].xor(rowSet[pivotRow]);
+			if (get(r,pivotCol))
+				gf2.xorInto (bits[r], w, bits[pivotRow], w, words-w);
 		}
 		//G.traceln ("makePivotColumZero(): " +pivotRow+ ","+pivotCol);
 		//dump();
 	}
 
+	/**
+	 * Same elimination as triangulate(), with the pivots taken in batches of G.PIVOT_BATCH.
+	 * The pivots of a batch are chosen serially; a row examined on the way is first brought
+	 * up to date with the pivots already chosen (applied[] counts them). Then the rows below
+	 * the batch apply all its pivots in order, in parallel blocks of rows. Every row sees
+	 * exactly the XORs, in the same order, as in triangulate(), so the result is identical.
+	 * Note : The original matrix is DESTROYED
+	 */
+	public void triangulateParallel()
+	{
+		if (pivots == null || pivots.length < G.PIVOT_BATCH)
+			pivots = new int[G.PIVOT_BATCH];
+		if (applied == null || applied.length < rows)
+			applied = new int[rows];
+		int limit = Math.min (rows, cols);
+		// rows that fit a few hundred KB are eliminated by one task
+		int blockRows = Math.max (16, (256*1024)/(8*words));
+		int c = 0;
+		while (c < limit)
+		{
+			java.util.Arrays.fill (applied, c, rows, 0);
+			int count = 0;
+			for ( ; c < limit && count < G.PIVOT_BATCH; c++)
+			{
+				catchUp (c, count);
+				if (!get(c,c))
+					if (!swapRowsBatched (c, count))
+						if (!swapCols(c,c))  // the columns swapped are right of all the pivots
+							continue;
+				pivots[count++] = c;
+			}
+			if (count > 0 && c < rows)
+				ForkJoinPool.commonPool().invoke (new EliminationTask (c, rows, count, blockRows));
+		}
+	}
+
+	/**
+	 * Applies to the given row the batch pivots it has not seen yet, in order
+	 */
+	private void catchUp (int row, int count)
+	{
+		for (int j=applied[row]; j<count; j++)
+		{
+			int p = pivots[j];
+			if (get(row,p))
+				gf2.xorInto (bits[row], p >>> 6, bits[p], p >>> 6, words - (p >>> 6));
+		}
+		applied[row] = count;
+	}
+
+	/**
+	 * swapRows(), bringing every candidate row up to date before it is examined
+	 */
+	private boolean swapRowsBatched (int pivotRow, int count)
+	{
+		for (int r=pivotRow+1; r<rows; r++)
+		{
+			catchUp (r, count);
+			if (get(r,pivotRow))
+			{
+				long[] tmp = bits[r];
+				bits[r] = bits[pivotRow];
+				bits[pivotRow] = tmp;
+				return true;  // both rows are up to date : the counters need no swap
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Brings a range of rows up to date with all the pivots of the batch; splits the range
+	 * in halves down to blockRows
+	 */
+	class EliminationTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+		int from, to, count, blockRows;
+
+		EliminationTask (int _from, int _to, int _count, int _blockRows)
+		{
+			from = _from;
+			to = _to;
+			count = _count;
+			blockRows = _blockRows;
+		}
+
+		protected void compute()
+		{
+			if (to-from <= blockRows)
+			{
+				for (int r=from; r<to; r++)
+					catchUp (r, count);
+				return;
+			}
+			int mid = (from+to) >>> 1;
+			invokeAll (new EliminationTask(from, mid, count, blockRows),
+					new EliminationTask(mid, to, count, blockRows));
+		}
+	}
+
 	/**
 	 * Note : The original matrix is DESTROYED
 	 * @return rank of this matrix
@@ -113,32 +294,32 @@ public class Matrix
 		int rank=0;
 		for (int r=0; r<rows; r++)
 		{
-			if (rowSet[r].cardinality() != 0)
+			if (gf2.popcount(bits[r], 0, words) != 0)
 				rank++;
 		}
 		return rank;
 	}
-	
+
 	public void fillRandom (int _rows, int _cols)
 	{
 		if (_rows <=0 || _cols <=0) throw new RuntimeException ("Invalid matrix dimensions");
-		
+
 		rows = _rows;
 		cols = _cols;
+		words = (cols+63) >>> 6;
 		int weight = cols/4;
 		Random rand = new Random();
-		
-		this.rowSet = new BitSet[rows];
+
+		this.bits = new long[rows][words];
 		for (int r=0; r<rows; r++)
 		{
-			rowSet[r]= new BitSet(cols);
 			for (int i=0; i<weight; i++)
-				rowSet[r].set(rand.nextInt(cols));
+				set (r, rand.nextInt(cols), true);
 		}
 		//G.traceln ("fillRandom():");
 		dump();
 	}
-	
+
 	/*
 	 * Keep only a subset of the columns, and zero out the rest.
 	 * The columns to be retained is given by the bitset mask.
@@ -146,10 +327,41 @@ public class Matrix
 	 */
 	public void selectColumns (BitSet mask)
 	{
+		if (maskWords == null || maskWords.length < words)
+			maskWords = new long[words];
+		java.util.Arrays.fill (maskWords, 0, words, 0L);
+		for (int c=mask.nextSetBit(0); c>=0 && c<cols; c=mask.nextSetBit(c+1))
+			maskWords[c >>> 6] |= 1L << c;
 		for (int r=0; r<rows; r++)
-			rowSet[r].and(mask);
+			gf2.andInto (bits[r], 0, maskWords, 0, words);
 	}
-	
+
+	/**
+	 * @return the rows of this matrix as new BitSets
+	 */
+	public BitSet[] exportToBitSet()
+	{
+		BitSet[] bs = new BitSet[rows];
+		for (int r=0; r<rows; r++)
+		{
+			bs[r] = new BitSet(cols);
+			for (int c=0; c<cols; c++)
+				if (get(r,c))
+					bs[r].set(c);
+		}
+		return bs;
+	}
+
+	public int getRowCount()
+	{
+		return rows;
+	}
+
+	public int getColCount()
+	{
+		return cols;
+	}
+
 	public void dump()
 	{
 		if (G.silent) return;
@@ -157,7 +369,7 @@ public class Matrix
 		{
 			for (int c=0; c<cols; c++)
 			{
-				if (rowSet[r].get(c))
+				if (get(r,c))
 					System.out.print ("1 ");
 				else
 					System.out.print ("0 ");
@@ -0,0 +1,217 @@
+/**
+ * GF(2) matrix on one contiguous long[] (row r starts at word r*words), with a
+ * Method of Four Russians rank.
+ * The columns are processed in blocks yielding up to k pivots. The k pivot rows of a block
+ * are reduced among themselves, and every remaining row is then cleared on all the k pivot
+ * columns by a single XOR with the combination of pivot rows selected by its k pivot bits.
+ * The combinations are tabulated on first use, one XOR each : the rows of a parity check
+ * matrix are sparse, so most rows select a single pivot row (used directly) or none, and
+ * building all 2^k entries up front would cost more than it saves.
+ * Rows are reordered through a permutation, never copied; columns are never swapped.
+ * A column with no pivot is zero in all the remaining rows, so the remaining rows are
+ * zero to the left of the current block, and the XORs start at the word of the block.
+ */
+import java.util.Arrays;
+import java.util.BitSet;
+
+public class PackedMatrix implements RankEngine
+{
+	protected int rows;
+	protected int cols;
+	protected int words;    // longs per row
+	protected long[] bits;  // row r is bits[r*words] .. bits[r*words+words-1]
+	protected int[] perm;   // perm[i] is the physical row at position i of the elimination
+	protected int k;        // pivots per block
+	protected long[] table; // 2^k combinations of the pivot rows of a block
+	protected int[] built;  // block number for which each table entry is valid
+	protected int block;
+	protected int[] pivotCols;
+	protected long[] maskWords;  // scratch for selectColumns(); then the columns that are not all zero
+	protected GF2 gf2 = GF2.KERNEL;
+	protected CodeSnapshot code = null;  // the source of the rows restored by getColumnRank()
+
+	public void init (int _rows, int _cols, BitSet[] _rowSet)
+	{
+		allocate (_rows, _cols);
+		for (int r=0; r<rows; r++)
+		{
+			long[] w = _rowSet[r].toLongArray();
+			int len = Math.min (w.length, words);
+			System.arraycopy (w, 0, bits, r*words, len);
+			Arrays.fill (bits, r*words+len, r*words+words, 0L);
+			if ((cols & 63) != 0 && len == words)
+				bits[r*words+words-1] &= (1L << cols) - 1;  // drop any bits beyond the last column
+		}
+	}
+
+	/**
+	 * Binds this matrix to a snapshot; the rows are restored from it by every getColumnRank()
+	 */
+	public void init (CodeSnapshot _code)
+	{
+		this.code = _code;
+		allocate (code.getRowCount(), code.getColCount());
+	}
+
+	/**
+	 * Restores the rows from the snapshot in one bulk copy, then selects the columns
+	 * @return the rank of the selected columns
+	 */
+	public int getColumnRank (BitSet columns)
+	{
+		code.copyRows (bits);
+		selectColumns (columns);
+		return getRank();
+	}
+
+	protected void allocate (int _rows, int _cols)
+	{
+		this.rows = _rows;
+		this.cols = _cols;
+		this.words = (cols+63) >>> 6;
+		if (bits == null || bits.length < rows*words)
+			bits = new long[rows*words];
+		if (perm == null || perm.length < rows)
+			perm = new int[rows];
+		// 2^k up to a quarter of the rows keeps the table cost below that of the row XORs it saves
+		int kk = 1;
+		while (kk < 8 && (8 << kk) <= rows)
+			kk++;
+		if (table == null || k != kk || table.length < (1 << kk)*words)
+		{
+			table = new long[(1 << kk)*words];
+			built = new int[1 << kk];
+			block = 0;
+		}
+		k = kk;
+		if (pivotCols == null || pivotCols.length < k)
+			pivotCols = new int[k];
+	}
+
+	public boolean get (int row, int col)
+	{
+		return (bits[row*words + (col >>> 6)] & (1L << col)) != 0L;
+	}
+
+	public void selectColumns (BitSet mask)
+	{
+		if (maskWords == null || maskWords.length < words)
+			maskWords = new long[words];
+		Arrays.fill (maskWords, 0, words, 0L);
+		for (int c=mask.nextSetBit(0); c>=0 && c<cols; c=mask.nextSetBit(c+1))
+			maskWords[c >>> 6] |= 1L << c;
+		for (int r=0; r<rows; r++)
+			gf2.andInto (bits, r*words, maskWords, 0, words);
+	}
+
+	/**
+	 * Note : The matrix is DESTROYED
+	 * @return rank of this matrix
+	 */
+	public int getRank()
+	{
+		for (int i=0; i<rows; i++)
+			perm[i] = i;
+		// row operations never fill a column that is zero in every row : those are skipped
+		if (maskWords == null || maskWords.length < words)
+			maskWords = new long[words];
+		Arrays.fill (maskWords, 0, words, 0L);
+		for (int r=0; r<rows; r++)
+			for (int w=0; w<words; w++)
+				maskWords[w] |= bits[r*words+w];
+		int rank = 0;  // positions above this hold the pivot rows of the finished blocks
+		int col = 0;
+		while (rank < rows && col < cols)
+		{
+			while (col < cols && (maskWords[col >>> 6] & (1L << col)) == 0L)
+				col++;
+			int w0 = col >>> 6;
+			int len = words-w0;
+			int found = 0;
+			for ( ; col < cols && found < k && rank+found < rows; col++)
+				if ((maskWords[col >>> 6] & (1L << col)) != 0L && findPivot (rank, found, col, w0, len))
+					pivotCols[found++] = col;
+			if (found == 0) break;
+			block++;
+			for (int i=rank+found; i<rows; i++)
+			{
+				int row = perm[i];
+				int index = 0;
+				for (int j=0; j<found; j++)  // branch free : the pivot bits are random
+					index |= (int)((bits[row*words + (pivotCols[j] >>> 6)] >>> pivotCols[j]) & 1L) << j;
+				if (index == 0)
+					continue;
+				if ((index & (index-1)) == 0)  // a single pivot row
+					gf2.xorInto (bits, row*words+w0, bits, perm[rank+Integer.numberOfTrailingZeros(index)]*words+w0, len);
+				else
+					gf2.xorInto (bits, row*words+w0, table, makeEntry(rank, index, w0, len)*words+w0, len);
+			}
+			rank += found;
+		}
+		return rank;
+	}
+
+	/**
+	 * Looks for a row below the pivots of the current block having a 1 in the given column,
+	 * once reduced by those pivots. If found, it is reduced, moved up as the next pivot row,
+	 * and the column is cleared from the earlier pivot rows of the block.
+	 * @return true if a pivot was found
+	 */
+	private boolean findPivot (int rank, int found, int col, int w0, int len)
+	{
+		for (int i=rank+found; i<rows; i++)
+		{
+			int row = perm[i];
+			// the bit as it would be after the reduction; the pivot rows are reduced, so
+			// the pivot bits of this row decide which of them would be added
+			boolean bit = get (row, col);
+			for (int j=0; j<found; j++)
+				if (get(row, pivotCols[j]) && get(perm[rank+j], col))
+					bit = !bit;
+			if (!bit) continue;
+			for (int j=0; j<found; j++)
+				if (get(row, pivotCols[j]))
+					gf2.xorInto (bits, row*words+w0, bits, perm[rank+j]*words+w0, len);
+			perm[i] = perm[rank+found];
+			perm[rank+found] = row;
+			for (int j=0; j<found; j++)
+			{
+				int pivotRow = perm[rank+j];
+				if (get(pivotRow, col))
+					gf2.xorInto (bits, pivotRow*words+w0, bits, row*words+w0, len);
+			}
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Builds the table entry for a combination of two or more pivot rows of the block,
+	 * from the entry without its lowest pivot
+	 * @return the index
+	 */
+	private int makeEntry (int rank, int index, int w0, int len)
+	{
+		if (built[index] == block)
+			return index;
+		int low = Integer.numberOfTrailingZeros (index);
+		int rest = index & (index-1);
+		if ((rest & (rest-1)) == 0)
+			System.arraycopy (bits, perm[rank+Integer.numberOfTrailingZeros(rest)]*words+w0, table, index*words+w0, len);
+		else
+			System.arraycopy (table, makeEntry(rank, rest, w0, len)*words+w0, table, index*words+w0, len);
+		gf2.xorInto (table, index*words+w0, bits, perm[rank+low]*words+w0, len);
+		built[index] = block;
+		return index;
+	}
+
+	public int getRowCount()
+	{
+		return rows;
+	}
+
+	public int getColCount()
+	{
+		return cols;
+	}
+}
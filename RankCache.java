@@ -0,0 +1,84 @@
+/**
+ * Bounded LRU cache of H2 column ranks, keyed by the stopping set.
+ * Near and above the threshold many trials end in the same small stopping sets;
+ * a hit saves the export and triangulation of H2.
+ * BitSet equality is canonical (trailing zero words are ignored), so the stopping set
+ * itself is the key; a copy is stored, since the callers reuse their BitSets. The copy is
+ * trimmed to the highest column of the set, not kept at the full length of the code.
+ * All methods are synchronized : one cache can be shared by concurrent workers.
+ */
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class RankCache
+{
+	int capacity;
+	LinkedHashMap<BitSet,Integer> map;
+	long hits, misses;
+
+	/**
+	 * @param _capacity maximum number of stopping sets kept; the least recently used is evicted
+	 */
+	public void init (int _capacity)
+	{
+		this.capacity = _capacity;
+		this.map = new LinkedHashMap<BitSet,Integer> (16, 0.75f, true)  // access order
+		{
+			protected boolean removeEldestEntry (Map.Entry<BitSet,Integer> eldest)
+			{
+				return size() > capacity;
+			}
+		};
+		this.hits = 0;
+		this.misses = 0;
+	}
+
+	/**
+	 * @return the cached rank for this stopping set, or -1 if it is not in the cache
+	 */
+	public synchronized int getRank (BitSet stoppingSet)
+	{
+		Integer rank = map.get (stoppingSet);
+		if (rank == null)
+		{
+			misses++;
+			return -1;
+		}
+		hits++;
+		return rank.intValue();
+	}
+
+	/**
+	 * Looks up a stopping set without counting a hit or a miss, and without touching the LRU order
+	 */
+	public synchronized boolean contains (BitSet stoppingSet)
+	{
+		return map.containsKey (stoppingSet);
+	}
+
+	public synchronized void putRank (BitSet stoppingSet, int rank)
+	{
+		if (capacity > 0)
+			map.put (stoppingSet.get(0, stoppingSet.length()), rank);
+	}
+
+	public synchronized void clear()
+	{
+		map.clear();
+		hits = 0;
+		misses = 0;
+	}
+
+	public synchronized long getHits()
+	{ return hits; }
+	public synchronized long getMisses()
+	{ return misses; }
+	public synchronized int size()
+	{ return map.size(); }
+
+	public synchronized String toString()
+	{
+		return ("Rank cache: " +hits +" hits; " +misses +" misses; " +map.size() +" entries");
+	}
+}
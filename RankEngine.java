@@ -0,0 +1,17 @@
+/**
+ * Finds the GF(2) rank of a subset of the columns of a parity check matrix.
+ * The engine is bound once to an immutable snapshot of the matrix; a query does not
+ * change the snapshot, so queries can follow each other without any re-export.
+ */
+import java.util.BitSet;
+
+public interface RankEngine
+{
+	public void init (CodeSnapshot code);
+
+	/**
+	 * @param columns the selected columns; not modified
+	 * @return the rank of the matrix restricted to these columns
+	 */
+	public int getColumnRank (BitSet columns);
+}
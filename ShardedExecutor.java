@@ -0,0 +1,129 @@
+/**
+ * The coordinator side of a sharded sweep : the trials of each erasure probability are cut
+ * into work units of the Spool, to be run by any number of worker processes, and the batches
+ * are read back from their results in trial order, so that the Controller logs and merges
+ * them exactly as those of a TrialExecutor. While it waits for a result, the coordinator
+ * runs units of the same probability itself, on its own executor.
+ * The lanes of the workers do not share the coordinator's rank cache; the counted lookups
+ * and the insertions are still done by the Controller in trial order, so the cache, and
+ * the logs, evolve as in a single process run.
+ * Units whose results already exist are not published again : a coordinator started again
+ * on the same spool, for the same run, merges them with the rest. A unit whose claim has
+ * expired is put back in todo, to be run by a worker or by the coordinator itself.
+ * @author Rajaraman
+ */
+import java.util.ArrayList;
+
+public class ShardedExecutor implements TrialSource
+{
+	Spool spool;
+	String run;            // the identity of the run
+	TrialExecutor local;   // runs units while waiting for the workers
+	int unitTrials;        // trials per unit
+	int cols;
+	long lease;            // milliseconds a claim stays valid without news from its worker
+	// the stream and the units of the current probability
+	long seed;
+	int code, probIndex;
+	float prob;
+	ArrayList<Spool.Unit> units = new ArrayList<Spool.Unit>();
+	int nextUnit;
+	ArrayList<TrialExecutor.Batch> batches = new ArrayList<TrialExecutor.Batch>();
+	int nextBatch;
+
+	/**
+	 * @param _run the identity of the run, see Spool.getRunId
+	 * @param _unitTrials trials per unit; rounded up to a whole number of batches
+	 * @param _lease seconds a claim stays valid without news from its worker
+	 */
+	public void init (Spool _spool, String _run, TrialExecutor _local, int _unitTrials, int _cols, int _lease)
+	{
+		this.spool = _spool;
+		this.run = _run;
+		this.lease = _lease*1000L;
+		this.local = _local;
+		int capacity = local.getBatchCapacity();
+		this.unitTrials = Math.max (1, (_unitTrials+capacity-1)/capacity) * capacity;
+		this.cols = _cols;
+	}
+
+	public void setStream (long _seed, int _code, int _probIndex)
+	{
+		this.seed = _seed;
+		this.code = _code;
+		this.probIndex = _probIndex;
+		local.setStream (_seed, _code, _probIndex);
+	}
+
+	public void setErasureProbability (float errProb)
+	{
+		this.prob = errProb;
+		local.setErasureProbability (errProb);
+	}
+
+	/**
+	 * Publishes the units of the trials firstTrial .. firstTrial+numTrials-1
+	 */
+	public void start (long firstTrial, int numTrials) throws Exception
+	{
+		units.clear();
+		batches.clear();
+		nextUnit = 0;
+		nextBatch = 0;
+		for (long first=firstTrial; first<firstTrial+numTrials; first+=unitTrials)
+		{
+			Spool.Unit unit = new Spool.Unit();
+			unit.run = run;
+			unit.seed = seed;
+			unit.code = code;
+			unit.probIndex = probIndex;
+			unit.prob = prob;
+			unit.first = first;
+			unit.count = (int) Math.min (unitTrials, firstTrial+numTrials-first);
+			spool.publish (unit);
+			units.add (unit);
+		}
+	}
+
+	public TrialExecutor.Batch nextBatch() throws Exception
+	{
+		while (nextBatch >= batches.size())
+		{
+			if (nextUnit >= units.size())
+				return null;
+			Spool.Unit unit = units.get (nextUnit++);
+			while (!spool.isDone (unit))
+			{
+				// only a unit of this probability : the local executor keeps its stream and statistics
+				Spool.Unit other = spool.claim (run, code, probIndex);
+				if (other != null)
+					spool.run (other, local);
+				else if (spool.recover (unit, lease))
+					G.itraceln ("Unit " +unit.getName() +" put back in todo : its claim expired");
+				else
+					Thread.sleep (G.SPOOL_POLL_MILLIS);
+			}
+			batches = spool.readResults (unit, cols);
+			nextBatch = 0;
+		}
+		return batches.get (nextBatch++);
+	}
+
+	/**
+	 * Withdraws the units no worker has claimed yet; those running are left to finish,
+	 * and their results are kept for a later run
+	 */
+	public void stop()
+	{
+		for (int i=nextUnit; i<units.size(); i++)
+			spool.withdraw (units.get(i));
+		nextUnit = units.size();
+		batches.clear();
+		nextBatch = 0;
+	}
+
+	public void close()
+	{
+		local.close();
+	}
+}
@@ -0,0 +1,160 @@
+/**
+ * Immutable sparse form of a parity check matrix H.
+ * The edges are stored as flat compressed-row (check node -> variable nodes) and
+ * compressed-column (variable node -> check nodes) arrays, so memory scales with the
+ * number of edges rather than rows x cols.
+ * It holds no decoding state : one instance can be shared by any number of decoders.
+ * @author Rajaraman
+ */
+import java.util.BitSet;
+
+public class SparseCode
+{
+	protected final int rows;
+	protected final int cols;
+	protected final int[] rowStart;  // edges of row r are rowIndex[rowStart[r]] .. rowIndex[rowStart[r+1]-1]
+	protected final int[] rowIndex;
+	protected final int[] colStart;  // edges of col c are colIndex[colStart[c]] .. colIndex[colStart[c+1]-1]
+	protected final int[] colIndex;
+
+	/**
+	 * Builds the compressed arrays from the jagged row and column lists of a Generator.
+	 * Rows or columns that have no connections may be null.
+	 */
+	public SparseCode (int _rows, int _cols, int[][] rowSet, int[][] colSet)
+	{
+		rows = _rows;
+		cols = _cols;
+		rowStart = new int[rows+1];
+		for (int r=0; r<rows; r++)
+			rowStart[r+1] = rowStart[r] + (rowSet[r]==null ? 0 : rowSet[r].length);
+		rowIndex = new int[rowStart[rows]];
+		for (int r=0; r<rows; r++)
+			if (rowSet[r] != null)
+				System.arraycopy (rowSet[r], 0, rowIndex, rowStart[r], rowSet[r].length);
+
+		colStart = new int[cols+1];
+		for (int c=0; c<cols; c++)
+			colStart[c+1] = colStart[c] + (colSet[c]==null ? 0 : colSet[c].length);
+		colIndex = new int[colStart[cols]];
+		for (int c=0; c<cols; c++)
+			if (colSet[c] != null)
+				System.arraycopy (colSet[c], 0, colIndex, colStart[c], colSet[c].length);
+
+		if (rowIndex.length != colIndex.length)
+			throw new IllegalArgumentException ("Row and column connections do not tally");
+	}
+
+	/**
+	 * For subclasses that keep the edge arrays elsewhere and override the accessors
+	 */
+	protected SparseCode (int _rows, int _cols)
+	{
+		rows = _rows;
+		cols = _cols;
+		rowStart = null;
+		rowIndex = null;
+		colStart = null;
+		colIndex = null;
+	}
+
+	/**
+	 * Builds the sparse form of a matrix given as BitSet rows
+	 */
+	public static SparseCode fromBitSet (int _rows, int _cols, BitSet[] bs)
+	{
+		int[][] rowSet = new int[_rows][];
+		int[] colWeight = new int[_cols];
+		for (int r=0; r<_rows; r++)
+		{
+			rowSet[r] = new int[bs[r].get(0, _cols).cardinality()];
+			int i=0;
+			for (int c=bs[r].nextSetBit(0); c>=0 && c<_cols; c=bs[r].nextSetBit(c+1))
+			{
+				rowSet[r][i++] = c;
+				++colWeight[c];
+			}
+		}
+		int[][] colSet = new int[_cols][];
+		for (int c=0; c<_cols; c++)
+			colSet[c] = new int[colWeight[c]];
+		int[] fill = new int[_cols];
+		for (int r=0; r<_rows; r++)
+			for (int i=0; i<rowSet[r].length; i++)
+				colSet[rowSet[r][i]][fill[rowSet[r][i]]++] = r;
+		return new SparseCode (_rows, _cols, rowSet, colSet);
+	}
+
+	/**
+	 * converts back to a BitSet array, for the dense Matrix routines
+	 */
+	public BitSet[] exportToBitSet()
+	{
+		BitSet[] bs = new BitSet[rows];
+		for (int r=0; r<rows; r++)
+		{
+			bs[r] = new BitSet(cols);
+			for (int e=rowStart(r); e<rowEnd(r); e++)
+				bs[r].set(rowIndex(e));
+		}
+		return bs;
+	}
+
+	public int getRowCount()
+	{
+		return rows;
+	}
+
+	public int getColCount()
+	{
+		return cols;
+	}
+
+	public int getEdgeCount()
+	{
+		return rowIndex.length;
+	}
+
+	public int rowStart (int row)
+	{
+		return rowStart[row];
+	}
+
+	public int rowEnd (int row)
+	{
+		return rowStart[row+1];
+	}
+
+	/**
+	 * @param edge an edge position between rowStart(r) and rowEnd(r)
+	 * @return the variable node at the end of this edge
+	 */
+	public int rowIndex (int edge)
+	{
+		return rowIndex[edge];
+	}
+
+	public int colStart (int col)
+	{
+		return colStart[col];
+	}
+
+	public int colEnd (int col)
+	{
+		return colStart[col+1];
+	}
+
+	/**
+	 * @param edge an edge position between colStart(c) and colEnd(c)
+	 * @return the check node at the end of this edge
+	 */
+	public int colIndex (int edge)
+	{
+		return colIndex[edge];
+	}
+
+	public String toString()
+	{
+		return ("SparseCode: " +rows +" rows; " +cols +" cols; " +getEdgeCount() +" edges");
+	}
+}
@@ -0,0 +1,500 @@
+/**
+ * A local work queue directory shared by one coordinator and any number of worker processes,
+ * on this host or on a shared file system. A work unit is a range of trials of one code pair
+ * and erasure probability; its results are the decoded batches, as a TrialExecutor returns them.
+ *   todo/<unit>.unit        published by the coordinator (a properties file)
+ *   claimed/<unit>.unit     taken by a worker, by an atomic rename out of todo
+ *   results/<unit>.result   written under a temporary name, then renamed, so it is never seen half written
+ *   settings.txt, H1.code, H2.code   the run, for the workers
+ *   run                     the identity of the run, written once the files above are in place
+ *   finished                the coordinator is done; the workers exit
+ * Every rename is atomic, so a unit is normally run by exactly one process.
+ * The results do not depend on who ran them : every trial draws from its own channel stream.
+ * The run identity (a hash of the settings file and of both codes) is part of every unit name,
+ * with the float probability, so the results of another run, or of other codes, are never
+ * taken for those of this one; the coordinator removes them when it begins.
+ * A claim is a lease : the worker touches the claimed file after every batch, and a claim
+ * not touched for longer than the lease (a worker that died) is put back in todo. If the
+ * first worker was only slow, the unit is run twice, with the same results.
+ * @author Rajaraman
+ */
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Properties;
+
+public class Spool
+{
+	public static final int RESULT_MAGIC = 0x4C445052;  // "LDPR"
+	public static final String SETTINGS = "settings.txt";
+	public static final String H1_CODE = "H1.code";
+	public static final String H2_CODE = "H2.code";
+	public static final String RUN = "run";
+
+	/**
+	 * A range of trials of one code pair and erasure probability
+	 */
+	public static class Unit
+	{
+		String run;      // the run identity
+		long seed;
+		int code;
+		int probIndex;
+		float prob;      // the probability the trials are drawn at
+		long first;
+		int count;
+
+		public String getName()
+		{
+			return (getPrefix (run, code, probIndex) +String.format ("%08x-t%012d", Float.floatToIntBits(prob), first));
+		}
+
+		/**
+		 * @return the start of the names of the units of one probability of a run
+		 */
+		public static String getPrefix (String run, int code, int probIndex)
+		{
+			return String.format ("%s-c%04d-p%06d-", run, code, probIndex);
+		}
+	}
+
+	File dir, todo, claimed, results;
+
+	public void init (String dirName)
+	{
+		this.dir = new File (dirName);
+		this.todo = new File (dir, "todo");
+		this.claimed = new File (dir, "claimed");
+		this.results = new File (dir, "results");
+		todo.mkdirs();
+		claimed.mkdirs();
+		results.mkdirs();
+	}
+
+	public File getFile (String name)
+	{
+		return new File (dir, name);
+	}
+
+	/**
+	 * Renames a complete file into place, atomically, replacing any older one
+	 */
+	protected static void rename (File from, File to) throws IOException
+	{
+		Files.move (from.toPath(), to.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Copies a file into the spool, under a temporary name first
+	 */
+	public void publishFile (File src, String name) throws IOException
+	{
+		File tmp = getFile (name +".tmp");
+		Files.copy (src.toPath(), tmp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		rename (tmp, getFile(name));
+	}
+
+	/**
+	 * Writes a code file into the spool (under a temporary name first, see MappedSparseCode)
+	 */
+	public void publishCode (CodeSnapshot code, String name) throws IOException
+	{
+		MappedSparseCode.write (getFile(name).getPath(), code.getSparseCode());
+	}
+
+	/**
+	 * @return the identity of a run : a hash of its settings file and its codes
+	 */
+	public static String getRunId (File settings, SparseCode h1, SparseCode h2) throws IOException
+	{
+		MessageDigest digest;
+		try
+		{
+			digest = MessageDigest.getInstance ("SHA-256");
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new IOException (e);
+		}
+		digest.update (Files.readAllBytes (settings.toPath()));
+		DataOutputStream out = new DataOutputStream (new BufferedOutputStream (new DigestOutputStream (OutputStream.nullOutputStream(), digest)));
+		writeCode (out, h1);
+		writeCode (out, h2);
+		out.flush();
+		byte[] hash = digest.digest();
+		StringBuilder id = new StringBuilder();
+		for (int i=0; i<8; i++)
+			id.append (String.format ("%02x", hash[i]));
+		return id.toString();
+	}
+
+	private static void writeCode (DataOutputStream out, SparseCode code) throws IOException
+	{
+		out.writeInt (code.getRowCount());
+		out.writeInt (code.getColCount());
+		for (int r=0; r<code.getRowCount(); r++)
+		{
+			out.writeInt (code.rowEnd(r)-code.rowStart(r));
+			for (int e=code.rowStart(r); e<code.rowEnd(r); e++)
+				out.writeInt (code.rowIndex(e));
+		}
+	}
+
+	/**
+	 * Starts a new run on the spool : withdraws the identity of the previous one, so that
+	 * the workers wait for this one, and removes every unit and result of another run.
+	 * The coordinator then publishes the settings and the codes, and setRun()
+	 */
+	public void begin (String run) throws IOException
+	{
+		getFile(RUN).delete();
+		setFinished (false);
+		for (File sub : new File[] {todo, claimed, results})
+		{
+			String[] names = sub.list();
+			if (names == null)
+				continue;
+			for (String name : names)
+				if (!name.startsWith (run +"-"))
+					new File (sub, name).delete();
+		}
+	}
+
+	/**
+	 * Publishes the identity of the run, once its settings and codes are in place
+	 */
+	public void setRun (String run) throws IOException
+	{
+		File tmp = getFile (RUN +".tmp");
+		Files.write (tmp.toPath(), run.getBytes (StandardCharsets.US_ASCII));
+		rename (tmp, getFile(RUN));
+	}
+
+	/**
+	 * @return the identity of the published run, or null if there is none yet
+	 */
+	public String getRun() throws IOException
+	{
+		try
+		{
+			return new String (Files.readAllBytes (getFile(RUN).toPath()), StandardCharsets.US_ASCII).trim();
+		}
+		catch (NoSuchFileException e)
+		{
+			return null;
+		}
+	}
+
+	/**
+	 * Tells the workers whether the coordinator is done
+	 */
+	public void setFinished (boolean finished) throws IOException
+	{
+		File marker = getFile ("finished");
+		if (finished)
+			marker.createNewFile();
+		else
+			marker.delete();
+	}
+
+	public boolean isFinished()
+	{
+		return getFile("finished").exists();
+	}
+
+	/**
+	 * Publishes a unit, unless its results already exist (from an earlier run of the coordinator)
+	 */
+	public void publish (Unit unit) throws IOException
+	{
+		if (isDone (unit))
+			return;
+		Properties prop = new Properties();
+		prop.setProperty ("run", unit.run);
+		prop.setProperty ("seed", Long.toString(unit.seed));
+		prop.setProperty ("code", Integer.toString(unit.code));
+		prop.setProperty ("prob_index", Integer.toString(unit.probIndex));
+		prop.setProperty ("prob", Float.toString(unit.prob));
+		prop.setProperty ("first", Long.toString(unit.first));
+		prop.setProperty ("count", Integer.toString(unit.count));
+		File tmp = new File (dir, unit.getName() +".unit.tmp");
+		FileOutputStream out = new FileOutputStream (tmp);
+		try
+		{
+			prop.store (out, null);
+		}
+		finally
+		{
+			out.close();
+		}
+		rename (tmp, new File (todo, unit.getName() +".unit"));
+	}
+
+	/**
+	 * Takes back a published unit that no worker has claimed yet
+	 */
+	public void withdraw (Unit unit)
+	{
+		new File (todo, unit.getName() +".unit").delete();
+	}
+
+	public boolean isDone (Unit unit)
+	{
+		return new File (results, unit.getName() +".result").exists();
+	}
+
+	/**
+	 * Puts a unit back in todo if its claim has expired, or if it is lost : neither waiting,
+	 * nor claimed, nor done (its claim was removed by a slow worker after it was put back)
+	 * @param lease milliseconds a claim stays valid without being touched
+	 * @return true if the unit was put back
+	 */
+	public boolean recover (Unit unit, long lease) throws IOException
+	{
+		String name = unit.getName() +".unit";
+		if (isDone(unit) || new File(todo, name).exists())
+			return false;
+		File file = new File (claimed, name);
+		long touched = file.lastModified();  // 0 if there is no claim
+		if (touched > 0 && System.currentTimeMillis()-touched <= lease)
+			return false;
+		if (touched > 0)
+		{
+			try
+			{
+				Files.move (file.toPath(), new File(todo, name).toPath(), StandardCopyOption.ATOMIC_MOVE);
+				return true;
+			}
+			catch (NoSuchFileException e)
+			{
+				return false;  // done or put back meanwhile
+			}
+			catch (FileAlreadyExistsException e)
+			{
+				return false;
+			}
+		}
+		if (isDone(unit) || new File(todo, name).exists() || new File(claimed, name).exists())
+			return false;  // claimed or done meanwhile
+		publish (unit);
+		return true;
+	}
+
+	/**
+	 * Renews the lease of a claimed unit
+	 */
+	public void touch (Unit unit)
+	{
+		new File (claimed, unit.getName() +".unit").setLastModified (System.currentTimeMillis());
+	}
+
+	/**
+	 * Claims the first unit of the run in the todo directory
+	 * @return the unit, or null if there is none left
+	 */
+	public Unit claim (String run) throws IOException
+	{
+		return claimPrefix (run +"-");
+	}
+
+	/**
+	 * Claims the first unit of one probability of the run, see Unit.getPrefix
+	 * @return the unit, or null if there is none left
+	 */
+	public Unit claim (String run, int code, int probIndex) throws IOException
+	{
+		return claimPrefix (Unit.getPrefix (run, code, probIndex));
+	}
+
+	private Unit claimPrefix (String prefix) throws IOException
+	{
+		String[] names = todo.list();
+		if (names == null)
+			return null;
+		Arrays.sort (names);
+		for (String name : names)
+		{
+			if (!name.endsWith (".unit") || !name.startsWith (prefix))
+				continue;
+			File file = new File (claimed, name);
+			try
+			{
+				Files.move (new File(todo, name).toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			}
+			catch (NoSuchFileException e)
+			{
+				continue;  // claimed or withdrawn meanwhile
+			}
+			catch (FileAlreadyExistsException e)
+			{
+				continue;
+			}
+			catch (AtomicMoveNotSupportedException e)
+			{
+				throw new IOException ("The spool directory must support atomic renames", e);
+			}
+			file.setLastModified (System.currentTimeMillis());  // the lease starts now
+			Properties prop = new Properties();
+			FileInputStream in = new FileInputStream (file);
+			try
+			{
+				prop.load (in);
+			}
+			finally
+			{
+				in.close();
+			}
+			Unit unit = new Unit();
+			unit.run = prop.getProperty ("run");
+			unit.seed = Long.parseLong (prop.getProperty("seed"));
+			unit.code = Integer.parseInt (prop.getProperty("code"));
+			unit.probIndex = Integer.parseInt (prop.getProperty("prob_index"));
+			unit.prob = Float.parseFloat (prop.getProperty("prob"));
+			unit.first = Long.parseLong (prop.getProperty("first"));
+			unit.count = Integer.parseInt (prop.getProperty("count"));
+			return unit;
+		}
+		return null;
+	}
+
+	/**
+	 * Runs a claimed unit on the executor, and publishes its results
+	 */
+	public void run (Unit unit, TrialExecutor executor) throws Exception
+	{
+		executor.setStream (unit.seed, unit.code, unit.probIndex);
+		executor.setErasureProbability (unit.prob);
+		executor.start (unit.first, unit.count);
+		// the executor reuses its batches : each is written as it comes
+		int capacity = executor.getBatchCapacity();
+		// a unique temporary name : a unit put back after its lease expired may be run twice at once
+		File tmp = File.createTempFile (unit.getName() +"-", ".tmp", results);
+		DataOutputStream out = new DataOutputStream (new BufferedOutputStream (new FileOutputStream (tmp)));
+		try
+		{
+			out.writeInt (RESULT_MAGIC);
+			out.writeInt ((unit.count+capacity-1)/capacity);
+			for (TrialExecutor.Batch batch=executor.nextBatch(); batch!=null; batch=executor.nextBatch())
+			{
+				writeBatch (out, batch);
+				touch (unit);
+			}
+		}
+		finally
+		{
+			out.close();
+		}
+		rename (tmp, new File (results, unit.getName() +".result"));
+		new File (claimed, unit.getName() +".unit").delete();
+	}
+
+	/**
+	 * Reads the results of a unit, once isDone()
+	 * @param cols the length of the code
+	 * @return its batches, in trial order
+	 */
+	public ArrayList<TrialExecutor.Batch> readResults (Unit unit, int cols) throws IOException
+	{
+		File file = new File (results, unit.getName() +".result");
+		DataInputStream in = new DataInputStream (new BufferedInputStream (new FileInputStream (file)));
+		try
+		{
+			if (in.readInt() != RESULT_MAGIC)
+				throw new IOException ("Not a result file: " +file);
+			int count = in.readInt();
+			ArrayList<TrialExecutor.Batch> batches = new ArrayList<TrialExecutor.Batch>(count);
+			for (int i=0; i<count; i++)
+				batches.add (readBatch (in, cols));
+			return batches;
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+	/**
+	 * A trial : success, retries, the erasures of every transmission, and for a failure the
+	 * stopping set, its rank and the ML result. Then the decoder statistics, if any.
+	 */
+	protected static void writeBatch (DataOutputStream out, TrialExecutor.Batch batch) throws IOException
+	{
+		DecodeResults results = batch.results;
+		out.writeLong (batch.first);
+		out.writeInt (batch.count);
+		for (int i=0; i<batch.count; i++)
+		{
+			out.writeBoolean (results.isSuccess(i));
+			out.writeInt (results.getRetries(i));
+			for (int t=0; t<=results.getRetries(i); t++)
+				out.writeInt (results.getErasureCount(i, t));
+			if (results.isSuccess(i))
+				continue;
+			BitSet set = results.getStoppingSet(i);
+			out.writeInt (set.cardinality());
+			for (int c=set.nextSetBit(0); c>=0; c=set.nextSetBit(c+1))
+				out.writeInt (c);
+			out.writeInt (batch.ranks[i]);
+			out.writeBoolean (batch.mlSuccess[i]);
+		}
+		DecoderStats stats = batch.stats;
+		out.writeBoolean (stats != null);
+		if (stats == null)
+			return;
+		stats.write (out);
+	}
+
+	protected static TrialExecutor.Batch readBatch (DataInputStream in, int cols) throws IOException
+	{
+		TrialExecutor.Batch batch = new TrialExecutor.Batch();
+		batch.first = in.readLong();
+		batch.count = in.readInt();
+		batch.results = new DecodeResults();
+		batch.results.init (batch.count, cols);
+		batch.ranks = new int[batch.count];
+		batch.mlSuccess = new boolean[batch.count];
+		DecodeResults results = batch.results;
+		BitSet set = new BitSet (cols);
+		for (int i=0; i<batch.count; i++)
+		{
+			boolean success = in.readBoolean();
+			results.retries[i] = in.readInt();
+			for (int t=0; t<=results.retries[i]; t++)
+				results.erasures[i*results.attempts+t] = in.readInt();
+			set.clear();
+			if (!success)
+			{
+				int size = in.readInt();
+				for (int k=0; k<size; k++)
+					set.set (in.readInt());
+				batch.ranks[i] = in.readInt();
+				batch.mlSuccess[i] = in.readBoolean();
+			}
+			results.set (i, success, set);
+		}
+		if (!in.readBoolean())
+			return batch;
+		DecoderStats stats = new DecoderStats();
+		stats.read (in);
+		batch.stats = stats;
+		return batch;
+	}
+}
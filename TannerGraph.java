@@ -5,88 +5,136 @@
  */
 import java.util.BitSet;
 
-public class TannerGraph 
+public class TannerGraph implements BatchDecoder
 {
-	Matrix matrix = null;
+	SparseCode code = null;  // the graph itself is shared and never modified
 	BitSet data = null;
 	BitSet erasures = null;
-	BitSet tmp = null;
-	BitSet revealed = null; // the parity equns that have been satisfied
+	int rows, cols;
+	// per-check state of the peeling decoder
+	int[] erasureCount;  // residual erasures in each parity equation
+	int[] erasureXor;    // XOR of the residual erasure positions : when only one is left, this IS its position
+	BitSet parity = null;  // parity of the known bits in each parity equation
+	int[] queue;           // parity equations having a single erasure, waiting to be solved
+	DecoderStats stats = null;  // optional counters
 	
 	public void init (Matrix _matrix)
 	{
-		this.matrix = _matrix;
-		this.data = new BitSet(matrix.cols);
-		this.erasures = new BitSet(matrix.cols);
-		this.tmp = new BitSet (matrix.cols);
-		this.revealed = new BitSet(matrix.rows);
+		init (SparseCode.fromBitSet(_matrix.getRowCount(), _matrix.getColCount(), _matrix.exportToBitSet()));
 	}
 	
+	public void init (SparseCode _code)
+	{
+		this.code = _code;
+		this.rows = code.getRowCount();
+		this.cols = code.getColCount();
+		this.data = new BitSet(cols);
+		this.erasures = new BitSet(cols);
+		this.parity = new BitSet(rows);
+		this.erasureCount = new int[rows];
+		this.erasureXor = new int[rows];
+		this.queue = new int[rows];
+	}
+	
+	/**
+	 * @param _stats counters to be updated by every decode(); null to disable
+	 */
+	public void setStats (DecoderStats _stats)
+	{
+		this.stats = _stats;
+	}
+	
+	/**
+	 * Peeling decoder driven by a work list of parity equations with a single erasure.
+	 * Each repaired bit updates only its own parity equations, so a trial costs O(edges);
+	 * decoding stops as soon as the work list is empty. What remains in the erasures
+	 * is the stopping set.
+	 * @return true if all the erasures were repaired
+	 */
 	public boolean decode ()
 	{
-	    // find which of the parity equations have been satisfied initially
-		this.revealed.clear();
-		for (int row=0; row<matrix.rows; row++)
+		for (int row=0; row<rows; row++)
+		{
+			erasureCount[row] = 0;
+			erasureXor[row] = 0;
+		}
+		parity.clear();
+		// the known bits fix the initial parity of each equation
+		for (int c=data.nextSetBit(0); c>=0; c=data.nextSetBit(c+1))
 		{
-			this.tmp.clear();
-			tmp.or (matrix.rowSet[row]);
-			tmp.and (erasures);
-			if (tmp.cardinality()==0) // no erasures in this row
-				revealed.set(row);
+			if (erasures.get(c)) continue;
+			for (int e=code.colStart(c); e<code.colEnd(c); e++)
+				parity.flip(code.colIndex(e));
+		}
+		for (int c=erasures.nextSetBit(0); c>=0; c=erasures.nextSetBit(c+1))
+		{
+			for (int e=code.colStart(c); e<code.colEnd(c); e++)
+			{
+				++erasureCount[code.colIndex(e)];
+				erasureXor[code.colIndex(e)] ^= c;
+			}
 		}
-		//G.logln("Initially revealed bits: " +revealed.toString());
+		int head=0, tail=0;
+		for (int row=0; row<rows; row++)
+			if (erasureCount[row]==1)
+				queue[tail++] = row;
 		
-		int iterations = 0;
-		for ( ; iterations<G.MAX_ITERATIONS; iterations++)
-			if (internalDecode())
-				break;
-		//G.logln ("Number of iterations : "+ Math.min((iterations+1), G.MAX_ITERATIONS));
-		//G.log (" "+ Math.min((iterations+1), G.MAX_ITERATIONS));
-		return (iterations < G.MAX_ITERATIONS);
-	}
-	
-	// perform one iteration
-	protected boolean internalDecode ()
-	{
-		for (int row=0; row<matrix.rows; row++)
+		// a round is one generation of the queue : the equations reduced to a single erasure
+		// by the previous round. This is one iteration of a flooding decoder.
+		int rounds=0, roundEnd=0, repaired=0;
+		while (head < tail)
 		{
-			//G.logln ("[" +row +"] Row set : "+matrix.rowSet[row].toString());
-			if (revealed.get(row)) 
-				continue;
-			
-			// take out the erasures in the current row
-			this.tmp.clear();
-			tmp.or (erasures);
-			tmp.and (matrix.rowSet[row]);
-			//G.logln ("Row "+ row +" : No. of erasures = "+tmp.cardinality());
-			
-			// if there is a single bit erased in this row, we can immediately fix it
-			if (tmp.cardinality()==1) // only a single erasure in this row 
+			if (head == roundEnd)
 			{
-				int erasePos = tmp.nextSetBit(0);
-				tmp.xor (matrix.rowSet[row]); // kill only the erased bit
-				tmp.and (data);  // take the other bits in this row, except the erased one 
-				if (tmp.cardinality()%2 == 0) // the other bits are already having even parity 
-					data.clear (erasePos);  // just maintain parity
-				else  // the other bits are having odd parity
-					data.set (erasePos);  // make it even
-
-				erasures.clear(erasePos); // this erasure has just been repaired
-				revealed.set(row);
+				if (repaired > 0 && stats != null)
+					stats.recordRecovered (rounds, repaired);
+				rounds++;
+				roundEnd = tail;
+				repaired = 0;
 			}
-			else   
+			int row = queue[head++];
+			if (erasureCount[row] != 1) // already solved through another equation
+				continue;
+			int erasePos = erasureXor[row];
+			boolean bit = parity.get(row);  // the erased bit must make the parity even
+			data.set (erasePos, bit);
+			erasures.clear(erasePos); // this erasure has just been repaired
+			repaired++;
+			for (int e=code.colStart(erasePos); e<code.colEnd(erasePos); e++)
 			{
-				if (tmp.cardinality()==0) // one revealed bit helped many equations to be satisfied
-					revealed.set(row);
+				int r = code.colIndex(e);
+				--erasureCount[r];
+				erasureXor[r] ^= erasePos;
+				if (bit)
+					parity.flip(r);
+				if (erasureCount[r]==1) // each equation can enter the queue only once
+					queue[tail++] = r;
 			}
-			/*
-			Note : now, there may be a back-propagation effect : some of the earlier
-			rows may become fully revealed at this point of time; but we will never
-			know it
-			*/
 		}
-		return (erasures.cardinality()==0);
+		if (repaired == 0 && rounds > 0)
+			rounds--;  // the last round found nothing to repair
+		else if (repaired > 0 && stats != null)
+			stats.recordRecovered (rounds, repaired);
+		boolean result = erasures.isEmpty();
+		if (stats != null)
+			stats.recordTrial (rounds, !result);
+		return result;
 	}
+	
+	/**
+	 * Decodes the all-zero code word under every erasure pattern of the batch, one after another
+	 */
+	public void decode (ErasureBatch batch, DecodeResults results)
+	{
+		for (int i=0; i<batch.size(); i++)
+		{
+			data.clear(); // all-zero code word
+			setErasures (batch.getMask(i));
+			boolean result = decode();
+			results.set (i, result, erasures);
+		}
+	}
+	
 	/*
 	public boolean checkParity()
 	{
@@ -161,6 +209,8 @@ public class TannerGraph
 	
 	public void dumpMatrix()
 	{
+		Matrix matrix = new Matrix();
+		matrix.init (rows, cols, code.exportToBitSet());
 		matrix.dump();
 	}
 }
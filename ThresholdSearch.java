@@ -0,0 +1,195 @@
+/**
+ * Locates where the failure rate curve of the decoder crosses a given level (the knee, the
+ * 50% point, the plateau) by bisection on a grid of probabilities 'resolution' apart.
+ * A probability is sampled only until the Wilson interval of its failure rate lies entirely
+ * above or below the level (or maxTrials is reached), in doubling chunks of trials.
+ * Every sample is kept, per grid point : a later search, or a later decision at the same
+ * point, continues from the trials already taken instead of starting again, and the points
+ * already decided narrow the bracket of every new search. Samples taken on the grid by
+ * others, such as a coarse sweep, can be added too.
+ * The failure rate is assumed to increase with the erasure probability.
+ * @author Rajaraman
+ */
+import java.util.Map;
+import java.util.TreeMap;
+
+public class ThresholdSearch
+{
+	public static final float KNEE_RATE = 0.1f;
+	public static final float MIDPOINT_RATE = 0.5f;
+	public static final float PLATEAU_RATE = 0.9f;
+
+	/**
+	 * Runs trials for the search
+	 */
+	public interface Sampler
+	{
+		/**
+		 * Runs the trials firstTrial .. firstTrial+count-1 at this probability
+		 * @return the number of failures
+		 */
+		public int sample (float prob, long firstTrial, int count) throws Exception;
+	}
+
+	static class Point
+	{
+		long trials;
+		long failures;
+	}
+
+	float resolution;
+	int lowIndex, highIndex;  // the search range, in grid steps
+	int minTrials, maxTrials;
+	TreeMap<Integer,Point> points = new TreeMap<Integer,Point>();
+	Sampler sampler = null;
+
+	/**
+	 * @param low the search range is [low,high]
+	 * @param _resolution the grid step : a crossing is located to within this
+	 * @param _minTrials trials at a point before any decision
+	 * @param _maxTrials trials at a point beyond which it is decided by its estimate alone
+	 */
+	public void init (float low, float high, float _resolution, int _minTrials, int _maxTrials)
+	{
+		this.resolution = _resolution;
+		this.lowIndex = toIndex (low);
+		this.highIndex = toIndex (high);
+		this.minTrials = Math.max (1, _minTrials);
+		this.maxTrials = Math.max (minTrials, _maxTrials);
+		points.clear();
+	}
+
+	/**
+	 * Sets the source of the trials; needed before the first findCrossing()
+	 */
+	public void setSampler (Sampler _sampler)
+	{
+		this.sampler = _sampler;
+	}
+
+	private int toIndex (float prob)
+	{
+		return Math.round (prob/resolution);
+	}
+
+	/**
+	 * @return the probability of a grid point
+	 */
+	public float toProbability (int index)
+	{
+		return (float) (index*(double)resolution);
+	}
+
+	private Point getPoint (int index)
+	{
+		Point pt = points.get (index);
+		if (pt == null)
+		{
+			pt = new Point();
+			points.put (index, pt);
+		}
+		return pt;
+	}
+
+	/**
+	 * Adds samples taken at a probability, e.g. by a sweep, if it is a grid point (to float
+	 * precision); samples taken between grid points would bias the rate of the nearest one
+	 * @return true if the samples were added
+	 */
+	public boolean addSamples (float prob, long trials, long failures)
+	{
+		int index = toIndex (prob);
+		if (Math.abs (prob-toProbability(index)) > 2*Math.ulp(prob))
+			return false;
+		Point pt = getPoint (index);
+		pt.trials += trials;
+		pt.failures += failures;
+		return true;
+	}
+
+	/**
+	 * @return +1 if the failure rate at the point is above the level, -1 if below, 0 if undecided
+	 */
+	private int compare (Point pt, float level)
+	{
+		if (pt.trials < minTrials)
+			return 0;
+		if (WilsonInterval.getLowerBound (pt.failures, pt.trials) > level)
+			return 1;
+		if (WilsonInterval.getUpperBound (pt.failures, pt.trials) < level)
+			return -1;
+		if (pt.trials >= maxTrials)
+			return (pt.failures > level*pt.trials ? 1 : -1);
+		return 0;
+	}
+
+	/**
+	 * Samples the grid point until it is decided
+	 * @return true if the failure rate is above the level
+	 */
+	private boolean isAbove (int index, float level) throws Exception
+	{
+		Point pt = getPoint (index);
+		int cmp;
+		while ((cmp = compare (pt, level)) == 0)
+		{
+			int count = (int) Math.min (Math.max (minTrials-pt.trials, pt.trials), maxTrials-pt.trials);
+			pt.failures += sampler.sample (toProbability(index), pt.trials, count);
+			pt.trials += count;
+		}
+		return (cmp > 0);
+	}
+
+	/**
+	 * Bisection for the level, within the bracket left by the points already decided
+	 * @return the lowest grid probability whose failure rate is above the level, to within
+	 * the resolution; the top of the range if the level is never reached
+	 */
+	public float findCrossing (float level) throws Exception
+	{
+		int lo = lowIndex, hi = highIndex;
+		for (Map.Entry<Integer,Point> e : points.entrySet())
+		{
+			int cmp = compare (e.getValue(), level);
+			if (cmp < 0 && e.getKey() > lo && e.getKey() < hi)
+				lo = e.getKey();
+			if (cmp > 0 && e.getKey() < hi && e.getKey() > lo)
+				hi = e.getKey();
+		}
+		while (hi-lo > 1)
+		{
+			int mid = (lo+hi) >>> 1;
+			if (isAbove (mid, level))
+				hi = mid;
+			else
+				lo = mid;
+		}
+		return toProbability (hi);
+	}
+
+	/**
+	 * @return the grid indices sampled so far, in increasing order
+	 */
+	public Iterable<Integer> getIndices()
+	{
+		return points.keySet();
+	}
+
+	public long getTrials (int index)
+	{
+		return getPoint(index).trials;
+	}
+
+	public long getFailures (int index)
+	{
+		return getPoint(index).failures;
+	}
+
+	public long getTotalTrials()
+	{
+		long total = 0;
+		for (Point pt : points.values())
+			total += pt.trials;
+		return total;
+	}
+}
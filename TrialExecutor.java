@@ -0,0 +1,352 @@
+/**
+ * Runs the trials of one erasure probability on a pool of threads.
+ * Each thread works through a lane of its own : a TrialWorker (channel, decoder, buffers),
+ * an H2 rank engine and an ML decoder; only H1, the H2 snapshot and the rank cache are shared.
+ * The trials are cut into batches, run in any order, and handed back strictly in trial order
+ * by nextBatch(), so the caller logs and accumulates them exactly as a serial loop would.
+ * Every trial draws from its own channel stream, so the results do not depend on the
+ * number of threads. The decoder statistics are kept per batch for the same reason : the
+ * caller can stop taking batches early (see stop()), while later ones have already run.
+ * The rank cache is only read (without counting) by the lanes : a lane skips the rank of a
+ * stopping set the cache already holds, and the caller does the counted lookups and the
+ * insertions in trial order, so the cache evolves as in a serial run.
+ * The batches are allocated once, one for each batch that can be in flight and one for the
+ * caller, and reused : a batch handed out by nextBatch() is valid until the next call to
+ * nextBatch(), start() or stop().
+ * @author Rajaraman
+ */
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class TrialExecutor implements TrialSource
+{
+	/**
+	 * A batch of consecutive trials, with what the lane found on the failures
+	 */
+	public static class Batch
+	{
+		long first;
+		int count;
+		DecodeResults results;
+		int[] ranks;           // H2 column rank of each stopping set; -1 if it was in the cache
+		boolean[] mlSuccess;   // ML decoding of each stopping set, if enabled
+		DecoderStats stats;    // of this batch alone, if enabled
+		DecoderStats statsBuffer;  // reused for stats
+
+		public long getFirstTrial()
+		{ return first; }
+		public int size()
+		{ return count; }
+		public DecodeResults getResults()
+		{ return results; }
+		public int getRank (int index)
+		{ return ranks[index]; }
+		public boolean isMLSuccess (int index)
+		{ return mlSuccess[index]; }
+		public DecoderStats getStats()
+		{ return stats; }
+	}
+
+	class Lane
+	{
+		TrialWorker worker;
+		RankEngine engine;
+		InactivationDecoder mlDecoder;
+	}
+
+	/**
+	 * A batch submitted to the pool; stop() withdraws it only if it has not started
+	 */
+	class Task implements Callable<Batch>
+	{
+		long first;
+		int count;
+		AtomicBoolean started = new AtomicBoolean();
+		Future<Batch> future;
+
+		public Batch call() throws InterruptedException
+		{
+			if (!started.compareAndSet (false, true))
+				return null;  // withdrawn
+			return runBatch (first, count);
+		}
+	}
+
+	Lane[] lanes;
+	ArrayBlockingQueue<Lane> idle;
+	ExecutorService pool = null;   // none for a single thread : the batches are run by the caller
+	RankCache cache;
+	int cols;
+	boolean analyse = true;        // find the H2 rank and the ML result of the failures
+	// the batches of the current probability
+	long firstTrial;
+	int numTrials;
+	int submitted;                 // trials submitted so far
+	ArrayDeque<Task> pending = new ArrayDeque<Task>();
+	ArrayBlockingQueue<Batch> free;  // the batches not in use
+	Batch taken = null;              // the batch last handed out, given back by the next call
+
+	/**
+	 * @param threads number of threads; see getThreadCount(int)
+	 * @param engines one H2 rank engine per thread, bound to the snapshot; may be null if the
+	 * failure analysis is turned off
+	 * @param ml also run the ML decoder on the stopping sets
+	 */
+	public void init (int threads, SparseCode h1, boolean bitSliced, int sliceWords, RankEngine[] engines, boolean ml, RankCache _cache)
+	{
+		this.cols = h1.getColCount();
+		this.cache = _cache;
+		lanes = new Lane[threads];
+		idle = new ArrayBlockingQueue<Lane> (threads);
+		for (int i=0; i<threads; i++)
+		{
+			lanes[i] = new Lane();
+			lanes[i].worker = new TrialWorker();
+			lanes[i].worker.init (h1, bitSliced, sliceWords);
+			lanes[i].engine = engines[i];
+			if (ml)
+			{
+				lanes[i].mlDecoder = new InactivationDecoder();
+				lanes[i].mlDecoder.init (h1);
+			}
+			idle.add (lanes[i]);
+		}
+		// up to 2 batches per thread are in flight, and one more is run while the caller holds one
+		int slots = (threads > 1 ? 2*threads+1 : 1);
+		free = new ArrayBlockingQueue<Batch> (slots);
+		for (int i=0; i<slots; i++)
+			free.add (newBatch());
+		if (threads > 1)
+			pool = Executors.newFixedThreadPool (threads, new ThreadFactory()
+			{
+				public Thread newThread (Runnable r)
+				{
+					Thread t = new Thread (r, "TrialExecutor");
+					t.setDaemon (true);
+					return t;
+				}
+			});
+	}
+
+	/**
+	 * @return the number of threads for a setting of 0 (all the cores) or more
+	 */
+	public static int getThreadCount (int setting)
+	{
+		return (setting > 0 ? setting : Runtime.getRuntime().availableProcessors());
+	}
+
+	public int getThreadCount()
+	{
+		return lanes.length;
+	}
+
+	/**
+	 * The workers, to configure their channels; all must be configured alike
+	 */
+	public TrialWorker getWorker (int lane)
+	{
+		return lanes[lane].worker;
+	}
+
+	public void setStream (long seed, int code, int probIndex)
+	{
+		for (Lane lane : lanes)
+			lane.worker.setStream (seed, code, probIndex);
+	}
+
+	public void setErasureProbability (float errProb)
+	{
+		for (Lane lane : lanes)
+			lane.worker.setErasureProbability (errProb);
+	}
+
+	/**
+	 * Turns on the decoder statistics of every batch
+	 */
+	public void enableStats (boolean enable)
+	{
+		for (Lane lane : lanes)
+			lane.worker.enableStats (enable);
+	}
+
+	/**
+	 * Turns on or off the H2 rank and ML decoding of the stopping sets, when only the
+	 * outcomes of the trials are wanted
+	 */
+	public void setFailureAnalysis (boolean _analyse)
+	{
+		this.analyse = _analyse;
+	}
+
+	public int getBatchCapacity()
+	{
+		return lanes[0].worker.getBatchCapacity();
+	}
+
+	/**
+	 * Starts the trials 0 .. _numTrials-1 of the current stream; all the batches of the
+	 * previous start must have been taken, or stopped
+	 */
+	public void start (int _numTrials)
+	{
+		start (0, _numTrials);
+	}
+
+	/**
+	 * Starts the trials _firstTrial .. _firstTrial+_numTrials-1 of the current stream
+	 */
+	public void start (long _firstTrial, int _numTrials)
+	{
+		this.firstTrial = _firstTrial;
+		this.numTrials = _numTrials;
+		this.submitted = 0;
+		release();
+		pending.clear();
+		if (pool != null)
+			while (submitted < numTrials && pending.size() < 2*lanes.length)
+				submit();
+	}
+
+	private void submit()
+	{
+		Task task = new Task();
+		task.first = firstTrial+submitted;
+		task.count = Math.min (getBatchCapacity(), numTrials-submitted);
+		submitted += task.count;
+		task.future = pool.submit (task);
+		pending.add (task);
+	}
+
+	/**
+	 * @return the next batch in trial order, or null when all the trials have been taken
+	 */
+	public Batch nextBatch() throws InterruptedException
+	{
+		release();
+		if (pool == null)
+		{
+			if (submitted >= numTrials)
+				return null;
+			long first = firstTrial+submitted;
+			int count = Math.min (getBatchCapacity(), numTrials-submitted);
+			submitted += count;
+			taken = runBatch (first, count);
+			return taken;
+		}
+		Task next = pending.poll();
+		if (next == null)
+			return null;
+		if (submitted < numTrials)
+			submit();
+		taken = getBatch (next.future);
+		return taken;
+	}
+
+	private static Batch getBatch (Future<Batch> future) throws InterruptedException
+	{
+		try
+		{
+			return future.get();
+		}
+		catch (ExecutionException e)
+		{
+			throw new RuntimeException (e.getCause());
+		}
+	}
+
+	/**
+	 * Gives back the batch last handed out
+	 */
+	private void release()
+	{
+		if (taken != null)
+			free.offer (taken);
+		taken = null;
+	}
+
+	private Batch newBatch()
+	{
+		int capacity = getBatchCapacity();
+		Batch batch = new Batch();
+		batch.results = new DecodeResults();
+		batch.results.init (capacity, cols);
+		batch.ranks = new int[capacity];
+		batch.mlSuccess = new boolean[capacity];
+		return batch;
+	}
+
+	/**
+	 * Runs one batch on an idle lane
+	 */
+	protected Batch runBatch (long first, int count) throws InterruptedException
+	{
+		Lane lane = idle.take();
+		try
+		{
+			Batch batch = free.poll();
+			if (batch == null)  // only if a batch was kept past the next call
+				batch = newBatch();
+			batch.first = first;
+			batch.count = count;
+			DecoderStats stats = lane.worker.getStats();
+			if (stats != null)
+				stats.clear();
+			DecodeResults results = lane.worker.runTrials (first, count);
+			batch.stats = null;
+			if (stats != null)
+			{
+				if (batch.statsBuffer == null)
+					batch.statsBuffer = new DecoderStats();
+				batch.stats = batch.statsBuffer;
+				batch.stats.clear();
+				batch.stats.add (stats);
+			}
+			for (int i=0; i<count; i++)
+			{
+				batch.results.copy (i, results, i);
+				batch.ranks[i] = 0;
+				batch.mlSuccess[i] = false;
+				if (results.isSuccess(i) || !analyse)
+					continue;
+				BitSet colmask = results.getStoppingSet(i);
+				batch.ranks[i] = (cache.contains(colmask) ? -1 : lane.engine.getColumnRank(colmask));
+				if (lane.mlDecoder != null)
+					batch.mlSuccess[i] = lane.mlDecoder.decode (colmask);
+			}
+			return batch;
+		}
+		finally
+		{
+			idle.put (lane);
+		}
+	}
+
+	/**
+	 * Drops the batches not taken yet : those not started are withdrawn, and those already
+	 * running are waited for, and their batches reused
+	 */
+	public void stop() throws InterruptedException
+	{
+		release();
+		submitted = numTrials;
+		for (Task task : pending)
+			if (!task.started.compareAndSet (false, true))
+				free.offer (getBatch (task.future));
+		pending.clear();
+	}
+
+	public void close()
+	{
+		if (pool != null)
+			pool.shutdown();
+	}
+}
@@ -0,0 +1,29 @@
+/**
+ * A source of decoded trial batches for the sweeps of the Controller : the trials of one
+ * erasure probability come back in trial order, whoever runs them.
+ * TrialExecutor runs them on threads of this JVM; ShardedExecutor has them run by any
+ * number of worker processes through a spool directory.
+ */
+public interface TrialSource
+{
+	public void setStream (long seed, int code, int probIndex);
+
+	public void setErasureProbability (float errProb);
+
+	/**
+	 * Starts the trials firstTrial .. firstTrial+numTrials-1 of the current stream
+	 */
+	public void start (long firstTrial, int numTrials) throws Exception;
+
+	/**
+	 * @return the next batch in trial order, or null when all the trials have been taken
+	 */
+	public TrialExecutor.Batch nextBatch() throws Exception;
+
+	/**
+	 * Drops the trials not taken yet
+	 */
+	public void stop() throws Exception;
+
+	public void close();
+}
@@ -0,0 +1,262 @@
+/**
+ * Runs batches of decoding trials on H1 : draws the erasures, decodes, and retransmits
+ * the failed trials in ARQ mode.
+ * A worker owns its channel, its decoder and all the scratch buffers, allocated once in init();
+ * in steady state a batch of trials does not allocate any memory.
+ * Trials are numbered within the channel stream; trial t always draws the same erasures
+ * (and retransmissions), so the outcome of a trial does not depend on the batch it is run in.
+ * @author Rajaraman
+ */
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+public class TrialWorker
+{
+	Channel channel = null;
+	BatchDecoder decoder = null;
+	ErasureBatch batch = null;
+	DecodeResults results = null;
+	ErasureBatch retryBatch = null;  // the failed trials of the current batch, for ARQ
+	DecodeResults retryResults = null;
+	int[] pending;  // batch index of each trial in the retry batch
+	DecoderStats stats = null;
+	long nextTrial = 0;  // number of the next trial of runTrials(int)
+
+	/**
+	 * @param h1 the code to be decoded; shared, not modified
+	 * @param bitSliced use the bit-sliced decoder, with batches of 64*sliceWords trials
+	 */
+	public void init (SparseCode h1, boolean bitSliced, int sliceWords)
+	{
+		int cols = h1.getColCount();
+		int capacity = G.BATCH_SIZE;
+		if (bitSliced)
+		{
+			BitSlicedDecoder bsd = new BitSlicedDecoder();
+			bsd.init (h1, sliceWords);
+			capacity = bsd.getLaneCount();
+			decoder = bsd;
+		}
+		else
+		{
+			TannerGraph tg = new TannerGraph();
+			tg.init (h1);
+			decoder = tg;
+		}
+		channel = new Channel();
+		channel.init (cols);
+		batch = new ErasureBatch();
+		batch.init (capacity, cols);
+		results = new DecodeResults();
+		results.init (capacity, cols);
+		retryBatch = new ErasureBatch();
+		retryBatch.init (capacity, cols);
+		retryResults = new DecodeResults();
+		retryResults.init (capacity, cols);
+		pending = new int[capacity];
+	}
+
+	public void setErasureProbability (float errProb)
+	{
+		channel.setErasureProbability (errProb);
+	}
+
+	/**
+	 * Selects the random stream of the channel, and numbers the next trials from 0
+	 */
+	public void setStream (long seed, int code, int probIndex)
+	{
+		channel.setStream (seed, code, probIndex);
+		nextTrial = 0;
+	}
+
+	public Channel getChannel()
+	{
+		return channel;
+	}
+
+	/**
+	 * Turns the decoder statistics on or off. Every decoding attempt, including
+	 * ARQ retransmissions, is counted as one trial.
+	 */
+	public void enableStats (boolean enable)
+	{
+		if (enable && stats == null)
+			stats = new DecoderStats();
+		decoder.setStats (enable ? stats : null);
+	}
+
+	/**
+	 * @return the statistics collected so far, or null if they are not enabled
+	 */
+	public DecoderStats getStats()
+	{
+		return stats;
+	}
+
+	/**
+	 * @return the maximum number of trials in one call of runTrials()
+	 */
+	public int getBatchCapacity()
+	{
+		return batch.getCapacity();
+	}
+
+	/**
+	 * Runs the next batch of trials
+	 * @param count number of trials, at most getBatchCapacity()
+	 * @return the results; valid until the next call
+	 */
+	public DecodeResults runTrials (int count)
+	{
+		DecodeResults res = runTrials (nextTrial, count);
+		nextTrial += count;
+		return res;
+	}
+
+	/**
+	 * Runs a batch of consecutive trials. In ARQ mode, the failed trials are retransmitted
+	 * together, up to G.MAX_ARQ times.
+	 * @param firstTrial number of the first trial of the batch
+	 * @param count number of trials, at most getBatchCapacity()
+	 * @return the results; valid until the next call
+	 */
+	public DecodeResults runTrials (long firstTrial, int count)
+	{
+		batch.setSize (count);
+		for (int i=0; i<count; i++)
+			batch.setTrial (i, firstTrial+i);
+		channel.getErasures (batch, 0);
+		decoder.decode (batch, results);
+		for (int i=0; i<count; i++)
+		{
+			results.retries[i] = 0;
+			results.erasures[i*results.attempts] = batch.getErasureCount(i);
+		}
+		for (int repeat=0; G.ARQ_MODE && repeat < G.MAX_ARQ; repeat++)
+		{
+			int failed = 0;
+			for (int i=0; i<count; i++)
+				if (!results.isSuccess(i))
+					pending[failed++] = i;
+			if (failed == 0) break;
+			retryBatch.setSize (failed);
+			for (int k=0; k<failed; k++)
+				retryBatch.setTrial (k, firstTrial+pending[k]);
+			channel.getErasures (retryBatch, repeat+1);
+			decoder.decode (retryBatch, retryResults);
+			for (int k=0; k<failed; k++)
+			{
+				int i = pending[k];
+				results.retries[i]++;
+				results.erasures[i*results.attempts+results.retries[i]] = retryBatch.getErasureCount(k);
+				results.set (i, retryResults.isSuccess(k), retryResults.getStoppingSet(k));
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Self test : once warmed up, a batch of trials must not allocate any memory; and a trial
+	 * replayed alone, by either decoder, must give the same result as in its batch.
+	 * Run it as  java TrialWorker [seed [code [probIndex]]] ; what is not given of the replayed
+	 * stream is drawn at random, and printed so that a failure can be run again.
+	 */
+	public static void main (String[] args) throws Exception
+	{
+		if (args.length > 3)
+		{
+			System.out.println ("Usage: java TrialWorker [seed [code [probIndex]]]");
+			return;
+		}
+		G.silent = true;
+		ModifiedPeg p = new ModifiedPeg();
+		p.init (300, 500, 3);
+		p.generate();
+		SparseCode h1 = p.exportToSparseCode();
+		Random random = new Random();
+		long seed = (args.length > 0 ? Long.parseLong(args[0]) : random.nextLong());
+		int code = (args.length > 1 ? Integer.parseInt(args[1]) : random.nextInt(1000));
+		int probIndex = (args.length > 2 ? Integer.parseInt(args[2]) : random.nextInt(1000));
+		checkAllocations (h1);
+		checkReplay (h1, seed, code, probIndex);
+		G.itraceln ("Done !");
+	}
+
+	/**
+	 * Decodes batches of trials with both decoders, and fails if a warmed up batch allocates
+	 */
+	protected static void checkAllocations (SparseCode h1)
+	{
+		com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		if (!bean.isThreadAllocatedMemorySupported())
+		{
+			G.itraceln ("Allocated memory cannot be measured on this JVM; check skipped");
+			return;
+		}
+		bean.setThreadAllocatedMemoryEnabled (true);
+		long threadId = Thread.currentThread().getId();
+		boolean[] modes = {false, true};
+		for (int m=0; m<modes.length; m++)
+		{
+			TrialWorker worker = new TrialWorker();
+			worker.init (h1, modes[m], 1);
+			worker.enableStats (true);
+			worker.setErasureProbability (0.42f);
+			int batchSize = worker.getBatchCapacity();
+			for (int i=0; i<2000; i++)   // warm up
+				worker.runTrials (batchSize);
+			long before = bean.getThreadAllocatedBytes(threadId);
+			int trials = 0;
+			for (int i=0; i<500; i++)
+			{
+				worker.runTrials (batchSize);
+				trials += batchSize;
+			}
+			long allocated = bean.getThreadAllocatedBytes(threadId) - before;
+			G.itraceln ((modes[m] ? "Bit-sliced" : "Tanner graph") +" decoder : " +allocated +" bytes allocated in " +trials +" trials");
+			G.itraceln ("  average iterations " +worker.getStats().getAverageRounds() +"; stalls " +worker.getStats().getStalls());
+			if (allocated != 0)
+				throw new RuntimeException ("Memory allocated while decoding");
+		}
+	}
+
+	/**
+	 * Decodes a batch of trials of the given channel stream, then replays each trial alone,
+	 * in reverse order, with both decoders, and fails if any outcome differs
+	 */
+	protected static void checkReplay (SparseCode h1, long seed, int code, int probIndex)
+	{
+		G.itraceln ("Replaying the stream seed=" +seed +", code=" +code +", prob index=" +probIndex);
+		TrialWorker worker = new TrialWorker();
+		worker.init (h1, false, 1);
+		worker.setStream (seed, code, probIndex);
+		worker.setErasureProbability (0.52f);
+		DecodeResults batchResults = new DecodeResults();
+		batchResults.init (G.BATCH_SIZE, h1.getColCount());
+		DecodeResults res = worker.runTrials (1000, G.BATCH_SIZE);
+		for (int i=0; i<G.BATCH_SIZE; i++)
+		{
+			batchResults.set (i, res.isSuccess(i), res.getStoppingSet(i));
+			batchResults.retries[i] = res.getRetries(i);
+		}
+		boolean[] modes = {false, true};
+		int failures = 0;
+		for (int m=0; m<modes.length; m++)
+		{
+			TrialWorker replay = new TrialWorker();
+			replay.init (h1, modes[m], 1);
+			replay.setStream (seed, code, probIndex);
+			replay.setErasureProbability (0.52f);
+			for (int i=G.BATCH_SIZE-1; i>=0; i--)
+			{
+				DecodeResults one = replay.runTrials (1000+i, 1);
+				if (one.isSuccess(0) != batchResults.isSuccess(i) || one.getRetries(0) != batchResults.getRetries(i)
+					|| !one.getStoppingSet(0).equals(batchResults.getStoppingSet(i)))
+					throw new RuntimeException ("Trial " +(1000+i) +" not reproduced");
+				failures += one.getRetries(0);
+			}
+		}
+		G.itraceln ("Replayed " +G.BATCH_SIZE +" trials alone, in reverse order, with both decoders; " +failures/2 +" retransmissions");
+	}
+}
@@ -0,0 +1,37 @@
+/**
+ * Wilson score interval for a binomial proportion, such as the failure rate after
+ * 'failures' failures in 'trials' trials. Unlike the normal interval it stays inside [0,1]
+ * and does not collapse to zero width when no trial (or every trial) has failed.
+ * @author Rajaraman
+ */
+public class WilsonInterval
+{
+	public static final double Z95 = 1.959964;  // two sided 95% normal quantile
+
+	public static double getLowerBound (long failures, long trials)
+	{
+		return getBound (failures, trials, -Z95);
+	}
+
+	public static double getUpperBound (long failures, long trials)
+	{
+		return getBound (failures, trials, Z95);
+	}
+
+	public static double getWidth (long failures, long trials)
+	{
+		return getUpperBound (failures, trials) - getLowerBound (failures, trials);
+	}
+
+	private static double getBound (long failures, long trials, double z)
+	{
+		if (trials <= 0)
+			return (z < 0 ? 0.0 : 1.0);
+		double n = trials;
+		double p = failures/n;
+		double centre = p + z*z/(2*n);
+		double spread = z * Math.sqrt (p*(1-p)/n + z*z/(4*n*n));
+		double bound = (centre + spread) / (1 + z*z/n);
+		return Math.max (0.0, Math.min (1.0, bound));
+	}
+}
@@ -0,0 +1,100 @@
+/**
+ * GF(2) kernels on the Java Vector API (jdk.incubator.vector), using the widest vector
+ * shape of the platform; the words that do not fill a vector are done by the scalar code.
+ * Build and run (see Readme.txt) :
+ *   javac --add-modules jdk.incubator.vector -cp . -d . simd/VectorGF2.java
+ *   java --add-modules jdk.incubator.vector Controller
+ * GF2.KERNEL falls back to the scalar kernels when this class or the module is missing.
+ */
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+public class VectorGF2 extends GF2
+{
+	static final VectorSpecies<Long> SPECIES = LongVector.SPECIES_PREFERRED;
+	static final int LANES = SPECIES.length();
+
+	public void xorInto (long[] dst, int dstPos, long[] src, int srcPos, int len)
+	{
+		int i = 0;
+		for (int bound=SPECIES.loopBound(len); i<bound; i+=LANES)
+		{
+			LongVector d = LongVector.fromArray (SPECIES, dst, dstPos+i);
+			LongVector s = LongVector.fromArray (SPECIES, src, srcPos+i);
+			d.lanewise(VectorOperators.XOR, s).intoArray (dst, dstPos+i);
+		}
+		for ( ; i<len; i++)
+			dst[dstPos+i] ^= src[srcPos+i];
+	}
+
+	public void andInto (long[] dst, int dstPos, long[] src, int srcPos, int len)
+	{
+		int i = 0;
+		for (int bound=SPECIES.loopBound(len); i<bound; i+=LANES)
+		{
+			LongVector d = LongVector.fromArray (SPECIES, dst, dstPos+i);
+			LongVector s = LongVector.fromArray (SPECIES, src, srcPos+i);
+			d.and(s).intoArray (dst, dstPos+i);
+		}
+		for ( ; i<len; i++)
+			dst[dstPos+i] &= src[srcPos+i];
+	}
+
+	public void andNotInto (long[] dst, int dstPos, long[] src, int srcPos, int len)
+	{
+		int i = 0;
+		for (int bound=SPECIES.loopBound(len); i<bound; i+=LANES)
+		{
+			LongVector d = LongVector.fromArray (SPECIES, dst, dstPos+i);
+			LongVector s = LongVector.fromArray (SPECIES, src, srcPos+i);
+			d.lanewise(VectorOperators.AND_NOT, s).intoArray (dst, dstPos+i);
+		}
+		for ( ; i<len; i++)
+			dst[dstPos+i] &= ~src[srcPos+i];
+	}
+
+	public int andPopcount (long[] a, int aPos, long[] b, int bPos, int len)
+	{
+		int i = 0;
+		LongVector sum = LongVector.zero (SPECIES);
+		for (int bound=SPECIES.loopBound(len); i<bound; i+=LANES)
+		{
+			LongVector x = LongVector.fromArray (SPECIES, a, aPos+i);
+			LongVector y = LongVector.fromArray (SPECIES, b, bPos+i);
+			sum = sum.add (bitCount(x.and(y)));
+		}
+		int count = (int) sum.reduceLanes (VectorOperators.ADD);
+		for ( ; i<len; i++)
+			count += Long.bitCount (a[aPos+i] & b[bPos+i]);
+		return count;
+	}
+
+	public int popcount (long[] a, int aPos, int len)
+	{
+		int i = 0;
+		LongVector sum = LongVector.zero (SPECIES);
+		for (int bound=SPECIES.loopBound(len); i<bound; i+=LANES)
+			sum = sum.add (bitCount(LongVector.fromArray(SPECIES, a, aPos+i)));
+		int count = (int) sum.reduceLanes (VectorOperators.ADD);
+		for ( ; i<len; i++)
+			count += Long.bitCount (a[aPos+i]);
+		return count;
+	}
+
+	/**
+	 * Per-lane population count by the usual SWAR reduction; JDK 17 has no BIT_COUNT lane operation
+	 */
+	private static LongVector bitCount (LongVector x)
+	{
+		x = x.sub (x.lanewise(VectorOperators.LSHR, 1).and(0x5555555555555555L));
+		x = x.and(0x3333333333333333L).add (x.lanewise(VectorOperators.LSHR, 2).and(0x3333333333333333L));
+		x = x.add(x.lanewise(VectorOperators.LSHR, 4)).and(0x0f0f0f0f0f0f0f0fL);
+		return x.mul(0x0101010101010101L).lanewise(VectorOperators.LSHR, 56);
+	}
+
+	public String toString()
+	{
+		return ("GF2 kernel: vector, " +LANES +" lanes");
+	}
+}